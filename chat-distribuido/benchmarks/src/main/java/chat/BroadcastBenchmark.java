@@ -0,0 +1,83 @@
+package chat;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Difusión de un mensaje a N clientes en memoria: mide lo que paga quien difunde
+// (recorrer la sala, formatear y encolar en cada cola de salida), sin sockets. Con
+// -prof gc, gc.alloc.rate.norm no debe crecer con clients: la línea se codifica una vez
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    int clients;
+
+    private ChatServer server;
+    private ChatMessage message;
+    private long seq;
+
+    @Setup
+    public void setup() {
+        server = new ChatServer(0, "Bench", Collections.emptyList(), new ServerConfig());
+        for (int i = 0; i < clients; i++) {
+            server.new Connection(false) {
+                // El escritor en memoria vacía la cola en cuanto hay algo
+                @Override
+                protected void outboundReady() {
+                    while (outbound.poll() != null) {
+                        // Descartar
+                    }
+                }
+
+                @Override
+                protected void writeLine(String line) {
+                }
+
+                @Override
+                protected void writeFrame(PeerFrame frame) {
+                }
+
+                @Override
+                protected OutputStream frameStream() {
+                    return OutputStream.nullOutputStream();
+                }
+
+                @Override
+                protected void flushLines() {
+                }
+
+                @Override
+                protected void useFrames() {
+                }
+
+                @Override
+                protected void close() {
+                }
+
+                @Override
+                protected void abort() {
+                }
+
+                @Override
+                protected void ackReady() {
+                }
+
+                @Override
+                protected void delay(long nanos, Runnable then) {
+                    then.run();
+                }
+            }.handleLine("usuario" + i);
+        }
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.broadcast(new ChatMessage("Otro~0", ++seq, "usuario: mensaje de prueba " + seq), null);
+    }
+}
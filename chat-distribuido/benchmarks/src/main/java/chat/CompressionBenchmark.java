@@ -0,0 +1,76 @@
+package chat;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+// Lo que cuesta comprimir un lote de replicación (flujo deflate del enlace, con y sin el
+// diccionario de serie) frente a escribirlo tal cual, y una página de historial para un
+// cliente. Con un lote de una trama no se llega al umbral: es lo que paga una línea suelta
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"1", "16", "256"})
+    int batch;
+
+    private final Metrics metrics = new Metrics("Bench");
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private List<byte[]> frames;
+    private String page;
+    private Compression.Output withDictionary;
+    private Compression.Output withoutDictionary;
+
+    @Setup
+    public void setup() {
+        frames = new ArrayList<>();
+        StringBuilder block = new StringBuilder("--- Historial de mensajes ---\n");
+        for (int i = 1; i <= batch; i++) {
+            ChatMessage message = new ChatMessage("Bench~0", i, "usuario" + (i % 100) + ": hola, ¿qué tal? mensaje " + i);
+            frames.add(new PeerFrame(PeerFrame.REPLICATE, message).bytes(true));
+            block.append(message.text).append('\n');
+        }
+        page = block.append("--- Fin del historial ---").toString();
+        withDictionary = new Compression.Output(Compression.CHAT_DICTIONARY, 512, metrics);
+        withoutDictionary = new Compression.Output(null, 512, metrics);
+    }
+
+    @TearDown
+    public void tearDown() {
+        withDictionary.end();
+        withoutDictionary.end();
+    }
+
+    @Benchmark
+    public void raw() throws IOException {
+        for (byte[] frame : frames) {
+            sink.write(frame);
+        }
+    }
+
+    @Benchmark
+    public void deflate() throws IOException {
+        for (byte[] frame : frames) {
+            withDictionary.add(frame, sink);
+        }
+        withDictionary.flush(sink);
+    }
+
+    @Benchmark
+    public void deflateNoDictionary() throws IOException {
+        for (byte[] frame : frames) {
+            withoutDictionary.add(frame, sink);
+        }
+        withoutDictionary.flush(sink);
+    }
+
+    @Benchmark
+    public void historyPage(Blackhole blackhole) {
+        blackhole.consume(Compression.line(page, 512, metrics));
+    }
+}
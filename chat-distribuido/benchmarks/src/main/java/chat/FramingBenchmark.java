@@ -0,0 +1,66 @@
+package chat;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+// Lectura de un flujo de N réplicas: líneas de texto (readLine y parseLine, el protocolo
+// antiguo y el de las conexiones de clientes) frente a tramas con longitud. readLinesPooled
+// es el lector del servidor en modo hilos; con -prof gc se ve lo que ahorra por línea
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+    @Param({"1000"})
+    int messages;
+
+    private byte[] lines;
+    private byte[] frames;
+
+    @Setup
+    public void setup() {
+        StringBuilder text = new StringBuilder();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (int i = 1; i <= messages; i++) {
+            PeerFrame frame = new PeerFrame(PeerFrame.REPLICATE,
+                    new ChatMessage("Bench~0", i, "usuario" + (i % 100) + ": mensaje de prueba número " + i));
+            text.append(frame.toLine()).append('\n');
+            byte[] bytes = frame.bytes();
+            binary.write(bytes, 0, bytes.length);
+        }
+        lines = text.toString().getBytes(StandardCharsets.UTF_8);
+        frames = binary.toByteArray();
+    }
+
+    @Benchmark
+    public void readLines(Blackhole blackhole) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lines), StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            blackhole.consume(PeerFrame.parseLine(line));
+        }
+    }
+
+    @Benchmark
+    public void readLinesPooled(Blackhole blackhole) throws IOException {
+        LineReader in = new LineReader(new ByteArrayInputStream(lines), StandardCharsets.UTF_8, NioReactor.MAX_LINE);
+        String line;
+        while ((line = in.readLine()) != null) {
+            blackhole.consume(PeerFrame.parseLine(line));
+        }
+    }
+
+    @Benchmark
+    public void readFrames(Blackhole blackhole) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(frames)));
+        PeerFrame frame;
+        while ((frame = PeerFrame.read(in)) != null) {
+            blackhole.consume(frame);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package chat;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+// Historial de una sala lleno: añadir (con desalojo), insertar un mensaje tardío en mitad
+// del orden, buscar duplicados y las dos lecturas, la página de entrada y el recorrido
+// completo de la sincronización antigua
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    @Param({"1000", "10000"})
+    int capacity;
+
+    private HistoryStore history;
+    private String[] ids;
+    private long seq;
+    private long lateSeq;
+    private int next;
+
+    @Setup
+    public void setup() {
+        history = new HistoryStore(capacity, 0);
+        ids = new String[capacity];
+        for (seq = 1; seq <= capacity; seq++) {
+            ChatMessage message = message("Bench~0", seq, seq);
+            history.add(message);
+            ids[(int) (seq - 1)] = message.id();
+        }
+    }
+
+    // Marca en milisegundos "seq": cada mensaje nuevo va al final
+    private static ChatMessage message(String origin, long seq, long millis) {
+        return new ChatMessage(origin, seq, ChatMessage.GENERAL, "usuario: mensaje de prueba " + seq,
+                HybridClock.fromMillis(millis));
+    }
+
+    @Benchmark
+    public boolean append() {
+        long s = seq++;
+        return history.add(message("Bench~0", s, s));
+    }
+
+    // De otra réplica, con la marca de hace media capacidad: entra en medio sin reordenar
+    @Benchmark
+    public boolean insertLate() {
+        return history.add(message("Bench~1", ++lateSeq, seq - capacity / 2));
+    }
+
+    // Ids ya desalojados tras append, pero el coste de la búsqueda es el mismo
+    @Benchmark
+    public boolean contains() {
+        next = (next + 1) % ids.length;
+        return history.contains(ids[next]);
+    }
+
+    @Benchmark
+    public HistoryStore.Page page() {
+        return history.page(null, 50);
+    }
+
+    @Benchmark
+    public void replay(Blackhole blackhole) {
+        history.forEach(blackhole::consume);
+    }
+}
@@ -0,0 +1,54 @@
+package chat;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+// Mide la latencia de entrada de un cliente: desde conectar hasta recibir el
+// final del historial tras enviar el nombre
+public class LoginBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Uso: java chat.LoginBenchmark <host:puerto> [entradas]");
+            return;
+        }
+        String[] address = args[0].split(":");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        long[] prompt = new long[count];
+        long[] login = new long[count];
+        for (int i = 0; i < count; i++) {
+            long started = System.nanoTime();
+            try (Socket socket = new Socket(address[0], Integer.parseInt(address[1]))) {
+                socket.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                waitFor(in, "Ingresa tu nombre de usuario:");
+                prompt[i] = System.nanoTime() - started;
+                out.println("medidor" + i);
+                waitFor(in, "--- Fin del historial ---");
+                login[i] = System.nanoTime() - started;
+            }
+        }
+        report("Saludo", prompt);
+        report("Entrada", login);
+    }
+
+    private static void waitFor(BufferedReader in, String expected) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(expected)) {
+                return;
+            }
+        }
+        throw new EOFException("conexión cerrada antes de: " + expected);
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: p50 %.2f ms, p99 %.2f ms, máx %.2f ms%n", label,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,60 @@
+package chat;
+
+import java.nio.file.*;
+
+// Mide el rendimiento de escritura del registro y el tiempo de recuperación
+public class MessageLogBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Uso: java chat.MessageLogBenchmark <directorio> [mensajes] [hilos]");
+            return;
+        }
+        Path dir = Paths.get(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int producers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        MessageLog log = new MessageLog(dir, MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.recover((message, acceptedAt) -> { }, 1);
+        log.start("registro");
+
+        long started = System.nanoTime();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            String origin = "Bench" + p + "~0";
+            int share = count / producers;
+            threads[p] = new Thread(() -> {
+                for (int i = 1; i <= share; i++) {
+                    log.append(new ChatMessage(origin, i, "usuario" + (i % 100) + ": mensaje de prueba número " + i),
+                            System.currentTimeMillis());
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        while (log.pending() > 0) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Escritura: %d mensajes en %.2f s (%.0f msg/s, %d fsync, %.1f msg/fsync)%n",
+                count, seconds, count / seconds, log.batches(), (double) count / log.batches());
+
+        HistoryStore history = new HistoryStore(10000, 0);
+        started = System.nanoTime();
+        long recovered = new MessageLog(dir, MessageLog.DEFAULT_SEGMENT_BYTES, 0).recover(new MessageLog.RecoveryListener() {
+            @Override
+            public void onRecovered(ChatMessage message, long acceptedAt) {
+                history.add(message);
+            }
+
+            @Override
+            public void onSkipped(String origin, long seq) {
+                history.markSeen(origin, seq);
+            }
+        }, 10000);
+        System.out.printf("Recuperación: %d mensajes en %d ms (historial en memoria: %d)%n",
+                recovered, (System.nanoTime() - started) / 1_000_000, history.size());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,67 @@
+package chat;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+// Sincronización de N mensajes: la línea SYNC_DATA de los servidores antiguos (texto
+// unido con "||" y partido con split) frente a una trama SYNC_MSG por mensaje
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncEncodingBenchmark {
+    @Param({"100", "1000"})
+    int messages;
+
+    private List<ChatMessage> history;
+    private String syncData;
+    private byte[] frames;
+
+    @Setup
+    public void setup() {
+        history = new ArrayList<>();
+        for (int i = 1; i <= messages; i++) {
+            history.add(new ChatMessage("Bench~0", i, "usuario" + (i % 100) + ": mensaje de prueba número " + i));
+        }
+        syncData = encodeLines();
+        frames = encodeFrames();
+    }
+
+    @Benchmark
+    public String encodeLines() {
+        StringBuilder sb = new StringBuilder("SYNC_DATA:");
+        for (ChatMessage message : history) {
+            sb.append(message.text).append("||");
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String[] decodeLines() {
+        return syncData.substring(10).split("\\|\\|");
+    }
+
+    @Benchmark
+    public byte[] encodeFrames() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ChatMessage message : history) {
+            byte[] frame = new PeerFrame(PeerFrame.SYNC_MSG, message).bytes();
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public void decodeFrames(Blackhole blackhole) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames));
+        PeerFrame frame;
+        while ((frame = PeerFrame.read(in)) != null) {
+            blackhole.consume(frame);
+        }
+    }
+}
@@ -32,21 +32,24 @@ echo -e "${YELLOW}Creando estructura de directorios...${NC}"
 mkdir -p src
 mkdir -p bin
 mkdir -p logs
+mkdir -p datos
 echo -e "${GREEN}✓ Directorios creados${NC}"
 
 echo ""
 
 # Compilar archivos
 echo -e "${YELLOW}Compilando código fuente...${NC}"
-if [ -f "ChatServer.java" ]; then
-    javac -d bin ChatServer.java
+# Con Maven: mvn package (y los benchmarks en benchmarks/, ver su pom.xml)
+SRC=src/main/java
+if [ -f "$SRC/chat/ChatServer.java" ]; then
+    javac -encoding UTF-8 -d bin -sourcepath $SRC $SRC/chat/ChatServer.java
     echo -e "${GREEN}✓ ChatServer compilado${NC}"
 else
     echo -e "${RED}✗ ChatServer.java no encontrado${NC}"
 fi
 
-if [ -f "ChatClient.java" ]; then
-    javac -d bin ChatClient.java
+if [ -f "$SRC/chat/ChatClient.java" ]; then
+    javac -encoding UTF-8 -d bin -sourcepath $SRC $SRC/chat/ChatClient.java
     echo -e "${GREEN}✓ ChatClient compilado${NC}"
 else
     echo -e "${RED}✗ ChatClient.java no encontrado${NC}"
@@ -64,7 +67,7 @@ cat > start_server1.sh << 'EOF'
 #!/bin/bash
 echo "Iniciando Servidor 1 en puerto 5000..."
 cd bin
-java ChatServer 5000 Server1 localhost:5001 localhost:5002 2>&1 | tee ../logs/server1.log
+java chat.ChatServer 5000 Server1 localhost:5001 localhost:5002 --datos=../datos/server1 2>&1 | tee ../logs/server1.log
 EOF
 chmod +x start_server1.sh
 
@@ -73,7 +76,7 @@ cat > start_server2.sh << 'EOF'
 #!/bin/bash
 echo "Iniciando Servidor 2 en puerto 5001..."
 cd bin
-java ChatServer 5001 Server2 localhost:5000 localhost:5002 2>&1 | tee ../logs/server2.log
+java chat.ChatServer 5001 Server2 localhost:5000 localhost:5002 --datos=../datos/server2 2>&1 | tee ../logs/server2.log
 EOF
 chmod +x start_server2.sh
 
@@ -82,7 +85,7 @@ cat > start_server3.sh << 'EOF'
 #!/bin/bash
 echo "Iniciando Servidor 3 en puerto 5002..."
 cd bin
-java ChatServer 5002 Server3 localhost:5000 localhost:5001 2>&1 | tee ../logs/server3.log
+java chat.ChatServer 5002 Server3 localhost:5000 localhost:5001 --datos=../datos/server3 2>&1 | tee ../logs/server3.log
 EOF
 chmod +x start_server3.sh
 
@@ -91,7 +94,7 @@ cat > start_client.sh << 'EOF'
 #!/bin/bash
 echo "Iniciando Cliente de Chat..."
 cd bin
-java ChatClient localhost:5000 localhost:5001 localhost:5002
+java chat.ChatClient localhost:5000 localhost:5001 localhost:5002
 EOF
 chmod +x start_client.sh
 
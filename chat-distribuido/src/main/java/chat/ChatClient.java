@@ -0,0 +1,242 @@
+package chat;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Consola sobre ChatConnection: lee de la entrada estándar y muestra lo que llega.
+// La reconexión y la cola de envío son cosa de la conexión
+public class ChatClient {
+    private final BufferedReader consoleReader;
+    private final List<ServerInfo> servers;
+    private ChatConnection connection;
+    private volatile boolean running;
+    private volatile boolean reconnecting;
+    // Página de historial en curso y cursor para pedir la anterior (null = no hay más);
+    // la página la rellena el hilo del reactor
+    private final List<String> historyPage = new ArrayList<>();
+    private boolean inHistory;
+    private boolean firstPageShown;
+    private volatile String historyCursor;
+
+    static class ServerInfo {
+        String host;
+        int port;
+
+        ServerInfo(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    public ChatClient(List<ServerInfo> servers) {
+        this.servers = servers;
+        this.running = true;
+        this.consoleReader = new BufferedReader(new InputStreamReader(System.in));
+    }
+
+    public void start() {
+        String username;
+        try {
+            System.out.print("Ingresa tu nombre de usuario: ");
+            username = consoleReader.readLine();
+        } catch (IOException e) {
+            return;
+        }
+        if (username == null || username.trim().isEmpty()) {
+            return;
+        }
+
+        System.out.println("Conectando a " + servers + "...");
+        connection = new ChatConnection(servers, username, new ChatConnection.Listener() {
+            @Override
+            public void onMessage(String line) {
+                receive(line);
+            }
+
+            @Override
+            public void onConnected(String serverName) {
+                System.out.println("✓ Conectado a " + serverName);
+                // El cursor de historial solo vale en el servidor que lo dio
+                firstPageShown = false;
+                historyCursor = null;
+                if (reconnecting) {
+                    reconnecting = false;
+                    System.out.println("Reconectado como " + username);
+                }
+            }
+
+            @Override
+            public void onDisconnected(String serverName) {
+                reconnecting = true;
+                System.out.println("\n⚠ Conexión perdida con " + serverName);
+                System.out.println("Intentando reconectar... (lo que escribas se enviará al reconectar)");
+            }
+
+            @Override
+            public void onRejected(String line) {
+                System.out.println("✗ No enviado: " + line);
+            }
+
+            @Override
+            public void onClosed(String reason) {
+                if (running) {
+                    System.out.println("✗ No se pudo conectar: " + reason + ". Saliendo...");
+                    running = false;
+                }
+            }
+        });
+
+        try {
+            connection.connect().get();
+        } catch (ExecutionException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        sendMessages();
+    }
+
+    private void receive(String message) {
+        if (message.startsWith("HEARTBEAT:")) {
+            // Ignorar heartbeats en cliente
+            return;
+        }
+        if (message.startsWith(ChatConnection.ROOM_PREFIX)) {
+            // El historial que sigue es el de otra sala
+            firstPageShown = false;
+            System.out.println(message);
+        } else if (message.equals("--- Historial de mensajes ---")) {
+            inHistory = true;
+            historyPage.clear();
+            historyCursor = null;
+        } else if (inHistory && message.startsWith("--- Hay mensajes anteriores: /historial ")) {
+            historyCursor = message.substring(40, message.length() - 4);
+        } else if (inHistory && message.equals(ChatConnection.HISTORY_END)) {
+            inHistory = false;
+            showHistoryPage();
+        } else if (inHistory) {
+            historyPage.add(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    private void showHistoryPage() {
+        System.out.println(firstPageShown ? "--- Mensajes anteriores ---" : "--- Historial de mensajes ---");
+        for (String line : historyPage) {
+            System.out.println(line);
+        }
+        if (historyCursor != null) {
+            System.out.println("(escribe /historial para ver mensajes anteriores)");
+        }
+        System.out.println("--- Fin del historial ---");
+        firstPageShown = true;
+    }
+
+    private void sendMessages() {
+        try {
+            while (running) {
+                String message = consoleReader.readLine();
+
+                if (message == null || message.equalsIgnoreCase("/salir")) {
+                    break;
+                }
+
+                if (message.equalsIgnoreCase("/servidores")) {
+                    System.out.println("\n=== Servidores disponibles ===");
+                    for (int i = 0; i < servers.size(); i++) {
+                        String indicator = (i == connection.getCurrentServerIndex()) ? " [ACTUAL]" : "";
+                        System.out.println((i + 1) + ". " + servers.get(i) + indicator);
+                    }
+                    System.out.println("==============================\n");
+                    continue;
+                }
+
+                if (message.equalsIgnoreCase("/historial")) {
+                    String cursor = historyCursor;
+                    if (cursor == null) {
+                        System.out.println("No hay mensajes anteriores.");
+                    } else {
+                        connection.send("/historial " + cursor);
+                    }
+                    continue;
+                }
+
+                if (message.equalsIgnoreCase("/ayuda")) {
+                    System.out.println("\n=== Comandos disponibles ===");
+                    System.out.println("/servidores - Muestra lista de servidores");
+                    System.out.println("/historial - Muestra mensajes anteriores");
+                    System.out.println("/unirse <sala> - Entra en una sala y la hace la actual");
+                    System.out.println("/dejar [sala] - Sale de una sala (por defecto la actual)");
+                    System.out.println("/salas - Muestra tus salas");
+                    System.out.println("/replicas - Estado de las réplicas del servidor");
+                    System.out.println("/privado <usuario> <mensaje> - Mensaje privado");
+                    System.out.println("/ayuda - Muestra esta ayuda");
+                    System.out.println("/salir - Salir del chat");
+                    System.out.println("===========================\n");
+                    continue;
+                }
+
+                // Si la conexión se cerró mientras se escribía, se sale
+                if (!running || !connection.send(message)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error leyendo entrada: " + e.getMessage());
+        } finally {
+            cleanup();
+        }
+    }
+
+    private void cleanup() {
+        running = false;
+        try {
+            // Lo que quede en cola sale antes de cerrar
+            connection.close().get(2, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // Se sale igualmente
+        }
+        System.out.println("\nDesconectado del chat. ¡Hasta luego!");
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Uso: java chat.ChatClient <servidor1:puerto1> <servidor2:puerto2> ...");
+            System.out.println("Ejemplo: java chat.ChatClient localhost:5000 localhost:5001 localhost:5002");
+            return;
+        }
+
+        List<ServerInfo> servers = new ArrayList<>();
+
+        for (String arg : args) {
+            try {
+                String[] parts = arg.split(":");
+                String host = parts[0];
+                int port = Integer.parseInt(parts[1]);
+                servers.add(new ServerInfo(host, port));
+            } catch (Exception e) {
+                System.err.println("Formato inválido: " + arg);
+            }
+        }
+
+        if (servers.isEmpty()) {
+            System.out.println("No se especificaron servidores válidos.");
+            return;
+        }
+
+        System.out.println("=== Cliente de Chat Distribuido ===");
+        System.out.println("Servidores configurados: " + servers.size());
+
+        ChatClient client = new ChatClient(servers);
+        client.start();
+    }
+}
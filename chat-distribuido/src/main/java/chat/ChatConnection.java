@@ -0,0 +1,631 @@
+package chat;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Cliente de chat sin bloqueos para usar como biblioteca (bots, integraciones, la consola
+// de ChatClient). Las conexiones de toda la JVM comparten unos pocos reactores NIO, así
+// que caben cientos. Lo que se envía se encola: si la conexión se pierde, se reconecta
+// al servidor que antes responda y la cola se vacía allí, incluidos los mensajes que
+// el servidor anterior no llegó a confirmar (pueden llegar dos veces, nunca ninguna, salvo
+// los que el servidor rechaza expresamente por límite de mensajes o sobrecarga)
+public class ChatConnection {
+    static final int PROBE_TIMEOUT = 2000;
+    // Un servidor actual envía sus funciones junto con el saludo; uno antiguo no las envía y
+    // solo se le espera esto
+    static final int FEATURES_TIMEOUT = 250;
+    static final long MIN_BACKOFF = 250;
+    static final long MAX_BACKOFF = 2000;
+    // Si la reconexión tarda, se descarta lo más antiguo
+    static final int MAX_PENDING = 10000;
+    static final String HISTORY_END = "--- Fin del historial ---";
+    static final String ROOM_PREFIX = "--- Sala actual: ";
+    // Con "acuses" cada mensaje sale como "#n texto" y el servidor contesta con su número
+    static final String ACK_PREFIX = "ACUSE:";
+    static final String REJECT_PREFIX = "RECHAZO:";
+    static final String RESUME_PREFIX = "--- Reanudando sesión: ";
+
+    // Las llamadas llegan desde el hilo del reactor: no deben bloquear. Una excepción se
+    // anota y la conexión sigue como si la llamada hubiera terminado bien
+    public interface Listener {
+        // Línea del servidor, sin el id que añade /reanudar
+        void onMessage(String line);
+
+        default void onConnected(String serverName) {
+        }
+
+        // Se perdió la conexión; ya se está reconectando
+        default void onDisconnected(String serverName) {
+        }
+
+        // Definitivo: tras close() o al agotar los intentos de reconexión
+        default void onClosed(String reason) {
+        }
+
+        // El servidor descartó un mensaje enviado (límite de mensajes o sobrecarga); no se reenvía
+        default void onRejected(String line) {
+        }
+    }
+
+    // Hilos comunes a todas las conexiones: reactores para la E/S y un grupo para los
+    // sondeos, que conectan y leen el saludo en bloqueo
+    static final class Shared {
+        private static Shared instance;
+
+        final NioReactor[] reactors;
+        final ExecutorService probes;
+        final ScheduledExecutorService timers;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Shared(int reactorCount) throws IOException {
+            reactors = new NioReactor[reactorCount];
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new NioReactor();
+                Thread thread = new Thread(reactors[i], "cliente-reactor-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            // Los sondeos bloquean, pero solo durante la conexión: los hilos se liberan pronto
+            probes = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 5, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), daemon("cliente-sondeo"));
+            timers = Executors.newSingleThreadScheduledExecutor(daemon("cliente-temporizador"));
+        }
+
+        static synchronized Shared get() {
+            if (instance == null) {
+                try {
+                    instance = new Shared(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return instance;
+        }
+
+        NioReactor reactor() {
+            return reactors[Math.floorMod(next.getAndIncrement(), reactors.length)];
+        }
+
+        private static ThreadFactory daemon(String name) {
+            return r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    // Conexión aceptada por un servidor con su saludo ya leído
+    static final class Probe {
+        final int index;
+        final SocketChannel channel;
+        final String serverName;
+        // Lo que anunció el servidor tras el saludo; vacío si es uno antiguo
+        final String features;
+
+        Probe(int index, SocketChannel channel, String serverName, String features) {
+            this.index = index;
+            this.channel = channel;
+            this.serverName = serverName;
+            this.features = features;
+        }
+    }
+
+    private final List<ChatClient.ServerInfo> servers;
+    private final String username;
+    private final Listener listener;
+    private final Shared shared = Shared.get();
+    // Pendientes de escribir y, con /reanudar, escritos sin acuse del servidor por número
+    // de envío, en orden
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    private final LinkedHashMap<Long, String> unacked = new LinkedHashMap<>();
+    private long sent;
+    // Lo visto de cada origen: al reconectar se pide lo posterior a la marca, la secuencia
+    // hasta la que no falta ninguno. Con la más alta, uno anterior que llegara tarde por otra
+    // réplica se daría por visto sin haberlo recibido
+    private final OriginIndex seen = new OriginIndex();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private Session current;
+    private boolean closing;
+    // Rondas de sondeo sin respuesta antes de rendirse; 0 = sin límite
+    private volatile int maxRounds;
+    private volatile int currentServerIndex;
+    private volatile String currentServerName;
+    // Sala actual según el servidor; se vuelve a ella al reconectar
+    private volatile String currentRoom = ChatMessage.GENERAL;
+
+    public ChatConnection(List<ChatClient.ServerInfo> servers, String username, Listener listener) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("Se necesita al menos un servidor");
+        }
+        this.servers = new ArrayList<>(servers);
+        this.username = username;
+        this.listener = listener;
+    }
+
+    // Por defecto se reintenta sin límite y lo encolado espera a que vuelva algún servidor.
+    // Con un límite, al agotarlo la conexión se cierra y lo pendiente se descarta
+    public ChatConnection setMaxRounds(int rounds) {
+        this.maxRounds = rounds;
+        return this;
+    }
+
+    // Se completa al recibir el historial del primer servidor
+    public CompletableFuture<Void> connect() {
+        attempt(0, MIN_BACKOFF);
+        return ready;
+    }
+
+    // Nunca bloquea; antes de conectar o durante una reconexión queda en la cola.
+    // Las líneas vacías no se envían. false si la conexión ya se está cerrando
+    public boolean send(String line) {
+        if (line.trim().isEmpty()) {
+            return true;
+        }
+        Session session;
+        synchronized (this) {
+            if (closing) {
+                return false;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                pending.poll();
+            }
+            pending.add(line);
+            session = current;
+        }
+        if (session != null) {
+            session.channel.outboundReady();
+        }
+        return true;
+    }
+
+    // Envía lo pendiente y cierra; se completa al cerrarse el socket
+    public CompletableFuture<Void> close() {
+        Session session;
+        synchronized (this) {
+            closing = true;
+            session = current;
+        }
+        if (session != null) {
+            session.channel.close();
+        } else {
+            finish("cerrada");
+        }
+        return closed;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getCurrentServerIndex() {
+        return currentServerIndex;
+    }
+
+    public String getCurrentServerName() {
+        return currentServerName;
+    }
+
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    public boolean isConnected() {
+        synchronized (this) {
+            return current != null;
+        }
+    }
+
+    // El código del oyente es del usuario: su fallo no puede tumbar el reactor compartido
+    private static void callListener(Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error en el oyente de la conexión: " + e);
+        }
+    }
+
+    private void finish(String reason) {
+        if (closed.complete(null)) {
+            ready.completeExceptionally(new IOException(reason));
+            callListener(() -> listener.onClosed(reason));
+        }
+    }
+
+    // Una ronda de sondeo en el grupo de sondeos; si nadie responde, otra con espera
+    private void attempt(int round, long backoff) {
+        shared.probes.execute(() -> {
+            synchronized (this) {
+                if (closing) {
+                    return;
+                }
+            }
+            Probe probe = probeServers();
+            if (probe != null) {
+                start(probe);
+            } else if (maxRounds > 0 && round + 1 >= maxRounds) {
+                synchronized (this) {
+                    closing = true;
+                }
+                finish("ningún servidor responde");
+            } else {
+                shared.timers.schedule(() -> attempt(round + 1, Math.min(backoff * 2, MAX_BACKOFF)),
+                        backoff, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    // Se sondean todos los servidores a la vez y se queda el primero que saluda: el más
+    // cercano o el menos cargado, sin esperar el plazo de los que están caídos
+    private Probe probeServers() {
+        BlockingQueue<Optional<Probe>> results = new LinkedBlockingQueue<>();
+        int first = currentServerIndex;
+        for (int i = 0; i < servers.size(); i++) {
+            int index = (first + i) % servers.size();
+            shared.probes.execute(() -> results.add(Optional.ofNullable(probe(index))));
+        }
+
+        Probe winner = null;
+        int remaining = servers.size();
+        try {
+            while (winner == null && remaining > 0) {
+                Optional<Probe> result = results.poll(PROBE_TIMEOUT + 1000, TimeUnit.MILLISECONDS);
+                if (result == null) {
+                    break;
+                }
+                remaining--;
+                winner = result.orElse(null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Los que respondan tarde se cierran en segundo plano
+        int late = remaining;
+        if (late > 0) {
+            shared.probes.execute(() -> {
+                try {
+                    for (int i = 0; i < late; i++) {
+                        Optional<Probe> result = results.poll(PROBE_TIMEOUT + 1000, TimeUnit.MILLISECONDS);
+                        if (result == null) {
+                            return;
+                        }
+                        result.ifPresent(p -> closeQuietly(p.channel));
+                    }
+                } catch (InterruptedException e) {
+                    // Se abandona
+                }
+            });
+        }
+        return winner;
+    }
+
+    // null si no conecta o no saluda a tiempo
+    private Probe probe(int index) {
+        ChatClient.ServerInfo server = servers.get(index);
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(new InetSocketAddress(server.host, server.port), PROBE_TIMEOUT);
+            channel.socket().setSoTimeout(PROBE_TIMEOUT);
+            InputStream in = channel.socket().getInputStream();
+            String greeting = readGreeting(in, false);
+            if (!greeting.startsWith("SERVIDOR:")) {
+                throw new IOException("saludo inesperado");
+            }
+            // La petición del nombre: ya va en el preámbulo
+            readGreeting(in, false);
+            channel.socket().setSoTimeout(FEATURES_TIMEOUT);
+            String features = readGreeting(in, true);
+            if (features == null) {
+                features = "";
+            } else if (features.startsWith(ChatServer.FEATURES_PREFIX) && features.endsWith(" ---")) {
+                features = features.substring(ChatServer.FEATURES_PREFIX.length(), features.length() - 4);
+            } else {
+                throw new IOException("saludo inesperado");
+            }
+            return new Probe(index, channel, greeting.substring(9), features);
+        } catch (IOException e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            return null;
+        }
+    }
+
+    // Byte a byte: lo que siga al saludo lo lee el reactor. Con optional, null si vence el
+    // plazo sin que llegue nada
+    private static String readGreeting(InputStream in, boolean optional) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        try {
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("cerrado durante el saludo");
+                }
+                line.write(b);
+            }
+        } catch (SocketTimeoutException e) {
+            if (optional && line.size() == 0) {
+                return null;
+            }
+            throw e;
+        }
+        return line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private void start(Probe probe) {
+        // "reanudar, acuses, comprimir": el servidor numera los mensajes y acepta reanudar,
+        // confirma cada envío por su número y puede enviar el historial comprimido
+        List<String> features = Arrays.asList(probe.features.split(", "));
+        boolean resumable = features.contains("reanudar");
+        Session session = new Session(probe.serverName, resumable, resumable && features.contains("acuses"),
+                features.contains(Compression.OFFER));
+        currentServerIndex = probe.index;
+        try {
+            probe.channel.socket().setSoTimeout(0);
+        } catch (SocketException e) {
+            // El reactor lo pasa a no bloqueante de todos modos
+        }
+        shared.reactor().register(probe.channel, channel -> {
+            session.channel = channel;
+            return session;
+        });
+    }
+
+    // Una conexión con un servidor; al perderse, la siguiente es otra Session
+    final class Session implements NioReactor.Listener {
+        private final String serverName;
+        private final boolean resumable;
+        // Los acuses llevan el número de envío; sin él, llegan en el orden de los mensajes
+        private final boolean numbered;
+        private final boolean compressed;
+        // Lo que se envía antes que la cola: compresión, reanudar, el nombre y la sala
+        private final ArrayDeque<String> preamble = new ArrayDeque<>();
+        private NioReactor.Channel channel;
+        // Líneas que quedan del bloque de reanudación: trae todo lo posterior a la marca y
+        // lo que ya se vio por encima de ella no se repite
+        private int resuming;
+
+        Session(String serverName, boolean resumable, boolean numbered, boolean compressed) {
+            this.serverName = serverName;
+            this.resumable = resumable;
+            this.numbered = numbered;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public void onOpen() {
+            synchronized (ChatConnection.this) {
+                if (closing) {
+                    channel.abort();
+                    return;
+                }
+                if (compressed) {
+                    preamble.add(Compression.REQUEST);
+                }
+                if (resumable) {
+                    String vector = seen.vector();
+                    preamble.add(vector.isEmpty() ? "/reanudar" : "/reanudar " + vector);
+                }
+                if (numbered) {
+                    preamble.add("/acuses");
+                }
+                preamble.add(username);
+                if (!currentRoom.equals(ChatMessage.GENERAL)) {
+                    preamble.add("/unirse " + currentRoom);
+                }
+                current = this;
+            }
+            currentServerName = serverName;
+            callListener(() -> listener.onConnected(serverName));
+            channel.outboundReady();
+        }
+
+        @Override
+        public void onLine(String line) {
+            if (compressed && line.startsWith(Compression.LINE_PREFIX)) {
+                try {
+                    for (String part : Compression.lines(line)) {
+                        receive(part);
+                    }
+                } catch (IOException e) {
+                    channel.abort();
+                }
+                return;
+            }
+            receive(line);
+        }
+
+        private void receive(String line) {
+            String text = track(line);
+            if (text == null) {
+                return;
+            }
+            if (text.startsWith(RESUME_PREFIX)) {
+                int end = text.indexOf(' ', RESUME_PREFIX.length());
+                try {
+                    resuming = Integer.parseInt(text.substring(RESUME_PREFIX.length(), end < 0 ? text.length() : end));
+                } catch (NumberFormatException e) {
+                    resuming = 0;
+                }
+            }
+            if (text.startsWith(ROOM_PREFIX) && text.endsWith(" ---")) {
+                currentRoom = text.substring(ROOM_PREFIX.length(), text.length() - 4);
+            }
+            callListener(() -> listener.onMessage(text));
+            if (text.equals(HISTORY_END)) {
+                ready.complete(null);
+            }
+        }
+
+        @Override
+        public void onClose() {
+            boolean reconnect;
+            synchronized (ChatConnection.this) {
+                if (current != this) {
+                    return;
+                }
+                current = null;
+                // Lo escrito sin acuse vuelve al principio de la cola, en su orden
+                List<String> unconfirmed = new ArrayList<>(unacked.values());
+                for (int i = unconfirmed.size() - 1; i >= 0; i--) {
+                    pending.addFirst(unconfirmed.get(i));
+                }
+                unacked.clear();
+                reconnect = !closing;
+            }
+            if (!reconnect) {
+                finish("cerrada");
+                return;
+            }
+            callListener(() -> listener.onDisconnected(serverName));
+            currentServerIndex = (currentServerIndex + 1) % servers.size();
+            attempt(0, MIN_BACKOFF);
+        }
+
+        @Override
+        public byte[] pollOutbound() {
+            String line;
+            synchronized (ChatConnection.this) {
+                line = preamble.poll();
+                if (line == null && current == this) {
+                    line = pending.poll();
+                    if (line != null && resumable && isAcknowledged(line)) {
+                        long number = ++sent;
+                        unacked.put(number, line);
+                        if (unacked.size() > MAX_PENDING) {
+                            // Un servidor que no confirma nada no hace crecer esto sin límite
+                            unacked.remove(unacked.keySet().iterator().next());
+                        }
+                        if (numbered) {
+                            line = "#" + number + " " + line;
+                        }
+                    }
+                }
+            }
+            return line == null ? null : OutboundQueue.encode(line);
+        }
+
+        @Override
+        public boolean hasOutbound() {
+            synchronized (ChatConnection.this) {
+                return !preamble.isEmpty() || (current == this && !pending.isEmpty());
+            }
+        }
+
+        // Quita el id "#origen:seq " de la línea y lo anota; null si era solo un acuse
+        private String track(String line) {
+            if (numbered && line.startsWith(ACK_PREFIX)) {
+                return acknowledged(line);
+            }
+            if (numbered && line.startsWith(REJECT_PREFIX)) {
+                return rejected(line);
+            }
+            if (!line.startsWith("#")) {
+                return line;
+            }
+            int space = line.indexOf(' ');
+            String id = space < 0 ? line.substring(1) : line.substring(1, space);
+            int colon = id.lastIndexOf(':');
+            if (colon <= 0) {
+                return line;
+            }
+            boolean repeated;
+            try {
+                String origin = id.substring(0, colon);
+                long seq = Long.parseLong(id.substring(colon + 1));
+                repeated = resuming > 0 && seen.contains(origin, seq);
+                markSeen(origin, seq);
+            } catch (NumberFormatException e) {
+                return line;
+            }
+            if (resuming > 0) {
+                resuming--;
+            }
+            if (space >= 0) {
+                return repeated ? null : line.substring(space + 1);
+            }
+            // Acuse sin número: confirma el más antiguo
+            synchronized (ChatConnection.this) {
+                if (!unacked.isEmpty()) {
+                    unacked.remove(unacked.keySet().iterator().next());
+                }
+            }
+            return null;
+        }
+
+        // "ACUSE:n origen:seq": confirma el envío n, llegue en el orden que llegue
+        private String acknowledged(String line) {
+            int space = line.indexOf(' ', ACK_PREFIX.length());
+            if (space < 0) {
+                return line;
+            }
+            String id = line.substring(space + 1);
+            int colon = id.lastIndexOf(':');
+            try {
+                long number = Long.parseLong(line.substring(ACK_PREFIX.length(), space));
+                if (colon > 0) {
+                    markSeen(id.substring(0, colon), Long.parseLong(id.substring(colon + 1)));
+                }
+                synchronized (ChatConnection.this) {
+                    unacked.remove(number);
+                }
+            } catch (NumberFormatException e) {
+                return line;
+            }
+            return null;
+        }
+
+        // "RECHAZO:n": el servidor descartó el envío n; no se reenvía al reconectar
+        private String rejected(String line) {
+            String dropped;
+            try {
+                long number = Long.parseLong(line.substring(REJECT_PREFIX.length()));
+                synchronized (ChatConnection.this) {
+                    dropped = unacked.remove(number);
+                }
+            } catch (NumberFormatException e) {
+                return line;
+            }
+            if (dropped != null) {
+                callListener(() -> listener.onRejected(dropped));
+            }
+            return null;
+        }
+    }
+
+    // Las órdenes no se guardan ni se confirman; todo lo demás es un mensaje con acuse
+    static boolean isAcknowledged(String line) {
+        for (String command : new String[] {"/historial", "/unirse", "/dejar", "/replicas", "/salas", "/privado"}) {
+            if (line.startsWith(command)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // La primera vez que aparece un origen, lo anterior es historia que no se pidió: la marca
+    // empieza ahí. Las secuencias de salas en las que no se está dejan huecos; la marca se
+    // para en ellos y la reanudación reenvía de más, pero el bloque lo descarta
+    private void markSeen(String origin, long seq) {
+        if (!seen.knows(origin)) {
+            seen.markSeenThrough(origin, seq - 1);
+        }
+        seen.markSeen(origin, seq);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignorar
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package chat;
+
+import java.util.*;
+
+// Mensaje aceptado por algún servidor: origen + secuencia lo identifican en todo el clúster
+// y la marca del reloj híbrido (HybridClock) le da su sitio en el historial
+public class ChatMessage {
+    static final String GENERAL = "general";
+    // Prefijo de sala de los mensajes privados: "@destinatario"
+    static final String DIRECT = "@";
+    // Orden del historial, el mismo en todos los nodos: marca y, a igualdad, origen y secuencia
+    static final Comparator<ChatMessage> ORDER = Comparator.<ChatMessage>comparingLong(m -> m.hlc)
+            .thenComparing(m -> m.origin).thenComparingLong(m -> m.seq);
+
+    final String origin;
+    final long seq;
+    final String room;
+    final String text;
+    // 0 = sin marca (réplicas en texto): la pone quien lo acepta
+    final long hlc;
+    private final String id;
+
+    public ChatMessage(String origin, long seq, String text) {
+        this(origin, seq, GENERAL, text);
+    }
+
+    public ChatMessage(String origin, long seq, String room, String text) {
+        this(origin, seq, room, text, 0);
+    }
+
+    public ChatMessage(String origin, long seq, String room, String text, long hlc) {
+        this.origin = origin;
+        this.seq = seq;
+        this.room = room;
+        this.text = text;
+        this.hlc = hlc;
+        this.id = origin + ":" + seq;
+    }
+
+    public ChatMessage withClock(long hlc) {
+        return new ChatMessage(origin, seq, room, text, hlc);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public boolean isDirect() {
+        return room.startsWith(DIRECT);
+    }
+
+    // Formato de línea entre servidores: origen:secuencia:texto, o origen:secuencia#sala:texto
+    // fuera de la sala general
+    public String encode() {
+        if (room.equals(GENERAL)) {
+            return origin + ":" + seq + ":" + text;
+        }
+        return origin + ":" + seq + "#" + room + ":" + text;
+    }
+
+    // Devuelve null si la línea no trae cabecera de origen (réplicas antiguas)
+    public static ChatMessage decode(String line) {
+        int first = line.indexOf(':');
+        int second = first < 0 ? -1 : line.indexOf(':', first + 1);
+        if (first <= 0 || second < 0) {
+            return null;
+        }
+        int hash = line.indexOf('#', first + 1);
+        int seqEnd = hash >= 0 && hash < second ? hash : second;
+        try {
+            long seq = Long.parseLong(line.substring(first + 1, seqEnd));
+            String room = seqEnd == second ? GENERAL : line.substring(hash + 1, second);
+            return new ChatMessage(line.substring(0, first), seq, room, line.substring(second + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
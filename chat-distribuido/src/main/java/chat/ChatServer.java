@@ -0,0 +1,1852 @@
+package chat;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+public class ChatServer {
+    static final int SYNC_BATCH = 1000;
+    // Al llenarse el búfer de escritura se envía aunque queden líneas en la cola
+    static final int WRITE_BUFFER = 64 * 1024;
+    static final long ACCEPT_ERROR_PAUSE = 50;
+    // Lo que se espera al escritor de un cliente que se cierra antes de cortar la conexión
+    static final long CLOSE_GRACE_MILLIS = 1000;
+    // Lo que espera el apagado a que el registro escriba lo pendiente
+    static final long LOG_CLOSE_MILLIS = 5000;
+    // Con el puerto compartido, lo que se espera a que una réplica antigua hable primero
+    static final long CLASSIFY_MILLIS = 100;
+    // Línea con las funciones del servidor, separadas por ", ", tras pedir el nombre
+    static final String FEATURES_PREFIX = "--- Funciones: ";
+
+    private final int port;
+    private final List<String> replicaServers;
+    private final CopyOnWriteArrayList<Connection> clients;
+    // Historial y suscriptores por sala; el índice por origen es común para la sincronización
+    private final RoomIndex<Connection> rooms;
+    private final OriginIndex syncIndex;
+    // Para los mensajes privados; con nombres repetidos gana la última entrada
+    private final ConcurrentHashMap<String, Connection> users = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private final String serverName;
+    private final ServerConfig config;
+    private final ThreadFactory workerThreads;
+    // Un enlace por miembro vivo; cambia poco, se recorre en cada mensaje
+    private final CopyOnWriteArrayList<PeerLink> peerLinks;
+    private final Membership membership;
+    // Identidad de este proceso como origen: un reinicio empieza una secuencia nueva
+    private String originId;
+    private final AtomicLong localSeq;
+    // Una secuencia propia solo se gasta si el registro admite el mensaje: un hueco dejaría
+    // esperando para siempre a las réplicas que sincronizan por marca de agua
+    private final Object recordLock = new Object();
+    // Marca de cada mensaje aceptado aquí; avanza con las marcas que llegan de otros nodos
+    private final HybridClock clock = new HybridClock();
+    private MessageLog messageLog;
+    // Aceptados que esperan al disco: aún no están en el historial, pero no se aceptan otra vez
+    private final Set<String> pendingIds = ConcurrentHashMap.newKeySet();
+    // Líneas descartadas en colas de salida y clientes cerrados por no leer
+    private final LongAdder droppedLines = new LongAdder();
+    private final LongAdder slowConsumers = new LongAdder();
+    private final Metrics metrics;
+    // Plazos de los quórums de escritura, de las líneas retrasadas y del modo sobrecarga
+    private final ScheduledThreadPoolExecutor timers;
+    // Límite de líneas de todos los clientes juntos; null = sin límite
+    private final TokenBucket nodeLimit;
+    private final OverloadMonitor overload;
+
+    public ChatServer(int port, String serverName, List<String> replicaServers) {
+        this(port, serverName, replicaServers, new ServerConfig());
+    }
+
+    public ChatServer(int port, String serverName, List<String> replicaServers, ServerConfig config) {
+        this.port = port;
+        this.config = config;
+        this.workerThreads = config.threadFactory(serverName + "-worker-");
+        this.peerLinks = new CopyOnWriteArrayList<>();
+        this.membership = new Membership(serverName,
+                config.advertise != null ? config.advertise : "localhost:" + port, System.currentTimeMillis());
+        this.serverName = serverName;
+        this.replicaServers = replicaServers;
+        this.clients = new CopyOnWriteArrayList<>();
+        this.syncIndex = new OriginIndex();
+        this.rooms = new RoomIndex<>(syncIndex, config.historyCapacity, config.historyMaxAgeMillis);
+        this.originId = serverName + "~" + Long.toString(System.currentTimeMillis(), 36);
+        this.localSeq = new AtomicLong();
+        this.running = true;
+        this.metrics = new Metrics(serverName);
+        this.timers = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, serverName + "-plazos");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Casi todos los plazos se cancelan al llegar los acuses
+        timers.setRemoveOnCancelPolicy(true);
+        this.nodeLimit = config.nodeRate > 0 ? new TokenBucket(config.nodeRate, config.nodeBurst) : null;
+        this.overload = new OverloadMonitor(serverName, config.overloadHeapPercent / 100.0, config.overloadThreads);
+    }
+
+    // Valores que no tienen contador propio: se calculan al consultar las métricas
+    private void registerGauges() {
+        metrics.gauge("clientes", users::size);
+        metrics.gauge("salas", rooms::size);
+        metrics.gauge("historial_mensajes", () -> {
+            long total = 0;
+            for (RoomIndex.Room<Connection> room : rooms.all()) {
+                total += room.history.size();
+            }
+            return total;
+        });
+        metrics.gauge("cola_clientes", () -> {
+            long total = 0;
+            for (Connection client : clients) {
+                total += client.outboundDepth();
+            }
+            return total;
+        });
+        metrics.gauge("cola_replicas", () -> {
+            long total = 0;
+            for (PeerLink link : peerLinks) {
+                total += link.pending();
+            }
+            return total;
+        });
+        metrics.gauge("replicas_conectadas", () -> peerLinks.stream().filter(PeerLink::isConnected).count());
+        metrics.gauge("lineas_descartadas", droppedLines::sum);
+        metrics.gauge("clientes_lentos", slowConsumers::sum);
+        if (Metrics.listenOverflows() >= 0) {
+            // Del núcleo y de todo el equipo: conexiones perdidas con la cola de espera llena
+            metrics.gauge("desbordes_backlog", Metrics::listenOverflows);
+        }
+        metrics.gauge("sobrecarga", () -> overload.isOverloaded() ? 1 : 0);
+        metrics.gauge("heap_tras_gc_pct", () -> Math.round(overload.heapUsed() * 100));
+        if (messageLog != null) {
+            metrics.gauge("registro_pendientes", messageLog::pending);
+            metrics.gauge("registro_errores", messageLog::failures);
+        }
+    }
+
+    public void start() {
+        // Con hilos de plataforma no hay nada que fijar
+        if (config.pinningThresholdMillis > 0 && config.isVirtual()) {
+            new PinningMonitor(serverName).start(config.pinningThresholdMillis);
+        } else if (config.pinningThresholdMillis > 0) {
+            System.out.println("[" + serverName + "] --detectar-pinning solo tiene efecto con --hilos=virtual");
+        }
+        if (config.dataDir != null && !openLog()) {
+            return;
+        }
+        registerGauges();
+        metrics.start(timers);
+        metrics.registerJmx();
+        if (overload.isEnabled()) {
+            overload.start(timers);
+        }
+        if (config.metricsPort > 0) {
+            try {
+                metrics.serve(config.metricsPort, workerThreads);
+            } catch (IOException e) {
+                System.err.println("Error abriendo el puerto de métricas: " + e.getMessage());
+            }
+        }
+        for (String replica : replicaServers) {
+            if (membership.addSeed(replica)) {
+                addPeer(replica, "?");
+            }
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+        if (config.isNio()) {
+            startNio();
+            return;
+        }
+
+        try {
+            List<ServerSocket> listeners = listen();
+            if (config.peerPortOffset > 0) {
+                ServerSocket peerSocket = new ServerSocket(port + config.peerPortOffset, config.backlog);
+                workerThreads.newThread(() -> acceptLoop(peerSocket, true)).start();
+            }
+            System.out.println("[" + serverName + "] Servidor iniciado en puerto " + port
+                    + peerPortDescription() + acceptorDescription(listeners.size()) + " (hilos " + config.threads + ")");
+            
+            workerThreads.newThread(this::syncWithReplicas).start();
+            workerThreads.newThread(this::monitorPeers).start();
+            for (int i = 1; i < config.acceptors; i++) {
+                ServerSocket listener = listeners.get(i % listeners.size());
+                workerThreads.newThread(() -> acceptLoop(listener, false)).start();
+            }
+            acceptLoop(listeners.get(0), false);
+        } catch (IOException e) {
+            System.err.println("Error iniciando servidor: " + e.getMessage());
+        }
+    }
+
+    private String peerPortDescription() {
+        return config.peerPortOffset > 0 ? ", réplicas en " + (port + config.peerPortOffset) : "";
+    }
+
+    private String acceptorDescription(int sockets) {
+        if (config.acceptors == 1) {
+            return "";
+        }
+        return ", " + config.acceptors + " aceptadores" + (sockets > 1 ? " con SO_REUSEPORT" : " en un socket");
+    }
+
+    // Con SO_REUSEPORT cada aceptador tiene su socket y su cola de espera, y el núcleo reparte
+    // las conexiones entre ellos; si el sistema no lo admite, todos aceptan del mismo socket
+    List<ServerSocket> listen() throws IOException {
+        boolean reusePort = config.acceptors > 1 && reusePortSupported();
+        List<ServerSocket> sockets = new ArrayList<>();
+        for (int i = 0; i < (reusePort ? config.acceptors : 1); i++) {
+            ServerSocket socket = new ServerSocket();
+            if (reusePort) {
+                socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            socket.bind(new InetSocketAddress(port), config.backlog);
+            sockets.add(socket);
+        }
+        return sockets;
+    }
+
+    List<ServerSocketChannel> listenNio() throws IOException {
+        boolean reusePort = config.acceptors > 1 && reusePortSupported();
+        List<ServerSocketChannel> channels = new ArrayList<>();
+        for (int i = 0; i < (reusePort ? config.acceptors : 1); i++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port), config.backlog);
+            channels.add(channel);
+        }
+        return channels;
+    }
+
+    static boolean reusePortSupported() throws IOException {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    // Sin descriptores libres accept falla en el acto: se espera un poco en lugar de girar
+    // y llenar el log mientras dura la ráfaga
+    private void acceptFailed(IOException e) {
+        metrics.acceptErrors.increment();
+        System.err.println("Error aceptando cliente: " + e.getMessage());
+        try {
+            Thread.sleep(ACCEPT_ERROR_PAUSE);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // En sobrecarga el cliente nuevo recibe este aviso en lugar del saludo y prueba con otro
+    // servidor; las réplicas se siguen aceptando
+    private byte[] overloadNotice() {
+        return OutboundQueue.encode("SOBRECARGA:" + serverName);
+    }
+
+    private void refuse(Socket socket) {
+        metrics.shed.increment();
+        try (socket) {
+            socket.getOutputStream().write(overloadNotice());
+        } catch (IOException e) {
+            // Se cierra igualmente
+        }
+    }
+
+    private void refuse(SocketChannel channel) {
+        metrics.shed.increment();
+        try (channel) {
+            // Recién aceptado, el búfer del socket está vacío: cabe sin bloquear
+            channel.write(ByteBuffer.wrap(overloadNotice()));
+        } catch (IOException e) {
+            // Se cierra igualmente
+        }
+    }
+
+    // La latencia de aceptación es lo que tarda cada vuelta en volver a accept: mientras,
+    // las conexiones nuevas esperan en la cola del núcleo
+    private void acceptLoop(ServerSocket socket, boolean peers) {
+        while (running) {
+            try {
+                Socket clientSocket = socket.accept();
+                long accepted = System.nanoTime();
+                if (!peers && overload.isOverloaded()) {
+                    refuse(clientSocket);
+                    continue;
+                }
+                (peers ? metrics.peersAccepted : metrics.accepted).increment();
+                if (peers) {
+                    // Los acuses de lotes son escrituras pequeñas: sin Nagle
+                    clientSocket.setTcpNoDelay(true);
+                }
+                ClientHandler handler = new ClientHandler(clientSocket, peers);
+                clients.add(handler);
+                workerThreads.newThread(handler).start();
+                metrics.acceptLatency.since(accepted);
+            } catch (IOException e) {
+                if (running) {
+                    acceptFailed(e);
+                }
+            }
+        }
+    }
+
+    private void startNio() {
+        try {
+            NioReactor[] reactors = new NioReactor[config.reactors];
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new NioReactor();
+                new Thread(reactors[i], serverName + "-reactor-" + i).start();
+            }
+
+            List<ServerSocketChannel> acceptors = listenNio();
+            if (config.peerPortOffset > 0) {
+                ServerSocketChannel peerAcceptor = ServerSocketChannel.open();
+                peerAcceptor.bind(new InetSocketAddress(port + config.peerPortOffset), config.backlog);
+                workerThreads.newThread(() -> acceptLoop(peerAcceptor, reactors, 0, true)).start();
+            }
+            System.out.println("[" + serverName + "] Servidor iniciado en puerto " + port
+                    + peerPortDescription() + acceptorDescription(acceptors.size())
+                    + " (nio, " + reactors.length + " reactores)");
+
+            workerThreads.newThread(this::syncWithReplicas).start();
+            workerThreads.newThread(this::monitorPeers).start();
+            for (int i = 1; i < config.acceptors; i++) {
+                ServerSocketChannel acceptor = acceptors.get(i % acceptors.size());
+                int first = i % reactors.length;
+                workerThreads.newThread(() -> acceptLoop(acceptor, reactors, first, false)).start();
+            }
+            acceptLoop(acceptors.get(0), reactors, 0, false);
+        } catch (IOException e) {
+            System.err.println("Error iniciando servidor: " + e.getMessage());
+        }
+    }
+
+    // Cada aceptador reparte entre los reactores empezando por uno distinto
+    private void acceptLoop(ServerSocketChannel acceptor, NioReactor[] reactors, int next, boolean peers) {
+        while (running) {
+            try {
+                SocketChannel channel = acceptor.accept();
+                long accepted = System.nanoTime();
+                if (!peers && overload.isOverloaded()) {
+                    refuse(channel);
+                    continue;
+                }
+                (peers ? metrics.peersAccepted : metrics.accepted).increment();
+                if (peers) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                reactors[next].register(channel, c -> {
+                    NioConnection connection = new NioConnection(c, peers);
+                    clients.add(connection);
+                    return connection;
+                });
+                next = (next + 1) % reactors.length;
+                metrics.acceptLatency.since(accepted);
+            } catch (IOException e) {
+                if (running) {
+                    acceptFailed(e);
+                }
+            }
+        }
+    }
+
+    // Recupera el historial y la identidad de origen del registro en disco
+    private boolean openLog() {
+        try {
+            messageLog = new MessageLog(Paths.get(config.dataDir), MessageLog.DEFAULT_SEGMENT_BYTES, config.maxSegments);
+            originId = messageLog.loadOrCreateOrigin(originId);
+
+            long started = System.nanoTime();
+            long recovered = messageLog.recover(new MessageLog.RecoveryListener() {
+                @Override
+                public void onRecovered(ChatMessage message, long acceptedAt) {
+                    clock.observe(message.hlc);
+                    rooms.room(message.room).history.add(message);
+                    if (message.origin.equals(originId)) {
+                        localSeq.accumulateAndGet(message.seq, Math::max);
+                    }
+                }
+
+                @Override
+                public void onSkipped(String origin, long seq) {
+                    syncIndex.markSeen(origin, seq);
+                    if (origin.equals(originId)) {
+                        localSeq.accumulateAndGet(seq, Math::max);
+                    }
+                }
+
+                @Override
+                public void onTruncated(String origin, long seq) {
+                    syncIndex.markSeenThrough(origin, seq - 1);
+                }
+            }, config.historyCapacity);
+            System.out.println("[" + serverName + "] Recuperados " + recovered + " mensajes de " + config.dataDir
+                    + " en " + (System.nanoTime() - started) / 1_000_000 + " ms");
+
+            messageLog.start(serverName + "-registro");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error abriendo el registro: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // El enlace se presenta con la lista de miembros para que el otro lado conozca a este
+    private void addPeer(String address, String name) {
+        PeerLink link = new PeerLink(serverName, address, config, workerThreads,
+                metrics, this::handlePeerResponse);
+        link.setPeerName(name);
+        link.send(PeerFrame.members(membership.encode()));
+        peerLinks.add(link);
+        link.start();
+    }
+
+    private PeerLink findPeer(String address) {
+        for (PeerLink link : peerLinks) {
+            if (link.getAddress().equals(address)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private void handleMembers(String list) {
+        for (Membership.Member member : membership.merge(list)) {
+            PeerLink link = findPeer(member.address);
+            if (member.alive && link == null) {
+                System.out.println("[" + serverName + "] Nuevo miembro " + member.name + " en " + member.address);
+                addPeer(member.address, member.name);
+            } else if (!member.alive && link != null) {
+                System.out.println("[" + serverName + "] " + member.name + " (" + member.address + ") dejó el clúster");
+                link.stop();
+                peerLinks.remove(link);
+            }
+        }
+        // Las semillas solo se conocían por dirección
+        for (Membership.Member member : membership.alive()) {
+            PeerLink link = findPeer(member.address);
+            if (link != null) {
+                link.setPeerName(member.name);
+            }
+        }
+    }
+
+    // Un miembro caído no anuncia su baja: pasado el plazo sin conectar se da de baja aquí y
+    // la baja se difunde con la lista. Si vuelve, lo hace con otra encarnación
+    private void removeUnreachable() {
+        long now = System.currentTimeMillis();
+        if (config.memberTimeoutMillis > 0) {
+            for (PeerLink link : peerLinks) {
+                long since = link.getUnreachableSince();
+                if (since > 0 && now - since >= config.memberTimeoutMillis && membership.remove(link.getAddress(), now)) {
+                    System.out.println("[" + serverName + "] " + link.getPeerName() + " (" + link.getAddress()
+                            + ") sin respuesta desde hace " + (now - since) / 1000 + " s: baja del clúster");
+                    link.stop();
+                    peerLinks.remove(link);
+                }
+            }
+        }
+        membership.expire(now);
+    }
+
+    // Lo que queda en el registro sale antes del aviso: sus difusiones y réplicas van detrás
+    private void shutdown() {
+        if (messageLog != null) {
+            try {
+                messageLog.close(LOG_CLOSE_MILLIS);
+            } catch (InterruptedException e) {
+                // Se apaga igualmente
+            }
+        }
+        announceLeave();
+    }
+
+    private void announceLeave() {
+        PeerFrame leave = PeerFrame.members(membership.encodeLeave());
+        for (PeerLink link : peerLinks) {
+            link.send(leave);
+        }
+        try {
+            for (PeerLink link : peerLinks) {
+                link.drain(500);
+            }
+        } catch (InterruptedException e) {
+            // Se apaga igualmente
+        }
+    }
+
+    // Enlaces conectados al azar; todos si count los cubre
+    private List<PeerLink> randomPeers(int count, String exclude, String origin) {
+        List<PeerLink> candidates = new ArrayList<>();
+        for (PeerLink link : peerLinks) {
+            String name = link.getPeerName();
+            if (link.isConnected() && !name.equals(exclude) && !name.equals(origin)) {
+                candidates.add(link);
+            }
+        }
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+
+    // Réplicas a las que se envía cada mensaje en gossip: con log2(N) reenvíos por nodo
+    // llega a todos con alta probabilidad, y lo que falte lo repara la sincronización
+    private int gossipFanout() {
+        if (config.gossipFanout > 0) {
+            return config.gossipFanout;
+        }
+        int cluster = peerLinks.size() + 1;
+        return Math.max(2, 32 - Integer.numberOfLeadingZeros(cluster));
+    }
+
+    // Una vez por latido: las réplicas que no contestan se desconectan y sus mensajes
+    // esperan en la cola del enlace hasta que vuelvan
+    private void monitorPeers() {
+        while (running) {
+            try {
+                Thread.sleep(config.heartbeatMillis);
+                for (PeerLink link : peerLinks) {
+                    link.checkHealth();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    // Estado de los enlaces para /replicas
+    private String peerStatus() {
+        StringBuilder sb = new StringBuilder("--- Réplicas ---");
+        long now = System.currentTimeMillis();
+        for (PeerLink link : peerLinks) {
+            sb.append('\n').append(link.getPeerName()).append(' ').append(link.getAddress());
+            if (link.isConnected()) {
+                sb.append(String.format(" conectada, phi %.1f", link.phi()));
+            } else if (link.getDownSince() > 0) {
+                sb.append(" caída desde hace ").append((now - link.getDownSince()) / 1000).append(" s");
+            } else {
+                sb.append(" conectando");
+            }
+            sb.append(", pendientes ").append(link.pending());
+            if (link.isAcknowledging()) {
+                sb.append(", sin acuse ").append(link.unacknowledged());
+            }
+        }
+        return sb.append("\n--- Fin de réplicas ---").toString();
+    }
+
+    private void syncWithReplicas() {
+        while (running) {
+            try {
+                Thread.sleep(5000);
+                metrics.syncRounds.increment();
+                // En malla se pregunta a todas; en gossip a una al azar en cada ronda
+                List<PeerLink> targets = config.isGossip() ? randomPeers(1, null, null) : peerLinks;
+                for (PeerLink link : targets) {
+                    // Un enlace caído guarda solo la última petición y la envía al reconectar
+                    link.requestSync(PeerFrame.syncSince(syncIndex.vector()));
+                }
+                removeUnreachable();
+                // La lista de miembros también se difunde de uno en uno
+                for (PeerLink link : randomPeers(1, null, null)) {
+                    link.send(PeerFrame.members(membership.encode()));
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    // Respuestas que llegan por los enlaces salientes
+    private void handlePeerResponse(PeerFrame response) {
+        if (response.type == PeerFrame.SYNC_MSG) {
+            // Si el registro está lleno se pierde: la siguiente sincronización lo vuelve a pedir
+            accept(stamp(response.message), repaired -> metrics.syncRepaired.increment());
+        }
+    }
+
+    // Lo que solo debe ocurrir cuando todo lo aceptado antes está en disco (los acuses de
+    // lote); sin registro, en el acto. false si el registro no admite más
+    private boolean whenDurable(Runnable action) {
+        if (messageLog != null) {
+            return messageLog.afterDurable(action);
+        }
+        action.run();
+        return true;
+    }
+
+    // Mensaje aceptado aquí que se difunde y se replica cuando es durable
+    private void publish(String room, String text, Connection sender) {
+        record(room, text, message -> {
+            broadcast(message, sender);
+            replicateToServers(message);
+        });
+    }
+
+    // Mensaje aceptado en este servidor. Una secuencia que no llegó al disco puede volver a
+    // usarse tras una caída: no importa, porque nadie llegó a ver ese mensaje. false si el
+    // registro está lleno
+    private boolean record(String room, String text, Consumer<ChatMessage> onVisible) {
+        if (messageLog == null) {
+            return accept(new ChatMessage(originId, localSeq.incrementAndGet(), room, text, clock.now()), onVisible);
+        }
+        // Con registro, accept solo encola: el cerrojo no cubre la difusión
+        synchronized (recordLock) {
+            ChatMessage message = new ChatMessage(originId, localSeq.get() + 1, room, text, clock.now());
+            if (!accept(message, onVisible)) {
+                return false;
+            }
+            localSeq.set(message.seq);
+            return true;
+        }
+    }
+
+    // Mensaje de otra réplica: su marca adelanta el reloj local. Sin marca (réplicas en
+    // texto) se le pone la de llegada; ese mensaje puede ordenarse distinto en cada nodo
+    private ChatMessage stamp(ChatMessage message) {
+        if (message.hlc == 0) {
+            return message.withClock(clock.now());
+        }
+        clock.observe(message.hlc);
+        return message;
+    }
+
+    // Lo escribe en el registro y, cuando está en disco, lo añade al historial de su sala:
+    // hasta el fsync no lo ven /historial, la reanudación ni la sincronización. onVisible
+    // (difusión, réplicas, acuses) va detrás, en el mismo hilo; no se ejecuta si ya se conocía
+    // o llegó tan tarde que el historial lo desaloja en el acto. Los privados no se guardan:
+    // no tienen secuencia y solo los ve su destinatario. false si el registro está lleno (el
+    // disco no da abasto): no se bloquea, y quien lo envió lo rechaza o frena la conexión
+    private boolean accept(ChatMessage message, Consumer<ChatMessage> onVisible) {
+        if (message.isDirect() || !pendingIds.add(message.id())) {
+            return true;
+        }
+        if (syncIndex.contains(message.origin, message.seq)) {
+            pendingIds.remove(message.id());
+            return true;
+        }
+        if (!canHold(message.room)) {
+            // Sala nueva que no cabe (llega de otra réplica): se da por visto para no volver a
+            // pedirlo en cada sincronización
+            syncIndex.markSeen(message.origin, message.seq);
+            pendingIds.remove(message.id());
+            metrics.roomsRefused.increment();
+            return true;
+        }
+        if (messageLog == null) {
+            insert(message, onVisible);
+        } else if (!messageLog.append(message, System.currentTimeMillis(), () -> insert(message, onVisible))) {
+            pendingIds.remove(message.id());
+            metrics.logFull.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // La sala ya existe o se puede crear sin pasar de --salas-max. Las que llegan de otras
+    // réplicas pasan por aquí igual que /unirse: si no, cualquier réplica crearía salas sin límite
+    private boolean canHold(String room) {
+        return rooms.get(room) != null || room.equals(ChatMessage.GENERAL)
+                || (room.matches(RoomIndex.NAME_PATTERN) && rooms.size() < config.maxRooms);
+    }
+
+    private void insert(ChatMessage message, Consumer<ChatMessage> onVisible) {
+        long started = System.nanoTime();
+        try {
+            if (!rooms.room(message.room).history.add(message)) {
+                return;
+            }
+        } finally {
+            // Ya en el historial, que descarta los duplicados por sí mismo
+            pendingIds.remove(message.id());
+        }
+        metrics.messages.increment();
+        metrics.historyAppend.since(started);
+        onVisible.accept(message);
+    }
+
+    // Solo a los suscriptores de la sala del mensaje
+    void broadcast(ChatMessage message, Connection sender) {
+        RoomIndex.Room<Connection> room = rooms.get(message.room);
+        if (room == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        Outgoing line = new Outgoing(message);
+        int delivered = 0;
+        for (Connection client : room.subscribers) {
+            if (client != sender) {
+                client.sendMessage(line);
+                delivered++;
+            }
+        }
+        metrics.deliveries.add(delivered);
+        metrics.broadcast.since(started);
+    }
+
+    // Primera línea de una réplica; no vale como nombre de usuario
+    private static boolean isProtocolLine(String line) {
+        return line.startsWith("PEER:") || line.equals("SYNC_REQUEST") || line.startsWith("REPLICATE:");
+    }
+
+    private static String display(ChatMessage message) {
+        return message.room.equals(ChatMessage.GENERAL) ? message.text : "[" + message.room + "] " + message.text;
+    }
+
+    // Un mensaje difundido se codifica una sola vez, con y sin id, y todas las colas
+    // comparten el mismo array
+    static final class Outgoing {
+        final ChatMessage message;
+        private byte[] plain;
+        private byte[] tagged;
+
+        Outgoing(ChatMessage message) {
+            this.message = message;
+        }
+
+        byte[] bytes(boolean withId) {
+            if (withId) {
+                if (tagged == null) {
+                    tagged = OutboundQueue.encode("#" + message.id() + " " + display(message));
+                }
+                return tagged;
+            }
+            if (plain == null) {
+                plain = OutboundQueue.encode(display(message));
+            }
+            return plain;
+        }
+    }
+
+    // false si el destinatario no está en este servidor
+    private boolean deliverDirect(ChatMessage message) {
+        Connection target = users.get(message.room.substring(ChatMessage.DIRECT.length()));
+        if (target == null) {
+            return false;
+        }
+        target.sendMessage("[privado] " + message.text);
+        return true;
+    }
+
+    private void replicateToServers(ChatMessage message) {
+        replicateToServers(message, null, null);
+    }
+
+    // from: réplica de la que llegó, para no devolvérselo. quorum: espera los acuses de
+    // los enlaces que confirman; si no hay bastantes vence en el acto
+    private void replicateToServers(ChatMessage message, String from, WriteQuorum quorum) {
+        long started = System.nanoTime();
+        PeerFrame frame = new PeerFrame(PeerFrame.REPLICATE, message);
+        frame.quorum = quorum;
+        List<PeerLink> targets;
+        if (config.isGossip() && !message.isDirect()) {
+            String origin = message.origin.substring(0, Math.max(0, message.origin.indexOf('~')));
+            targets = randomPeers(gossipFanout(), from, origin);
+        } else {
+            targets = peerLinks;
+        }
+        int sent = 0;
+        int acknowledging = 0;
+        for (PeerLink link : targets) {
+            // Una réplica en texto puede ser antigua y mostraría el privado a todos
+            if (!message.isDirect() || link.isBinary()) {
+                link.send(frame);
+                sent++;
+                if (link.isAcknowledging()) {
+                    acknowledging++;
+                }
+            }
+        }
+        if (quorum != null && acknowledging < quorum.required()) {
+            quorum.expire();
+        }
+        metrics.replicated.add(sent);
+        metrics.replicate.since(started);
+    }
+
+    // Lógica del protocolo, común a los modos hilos y nio
+    abstract class Connection {
+        // Aceptada en el puerto de réplicas: no se saluda y la primera línea debe ser PEER:
+        protected final boolean peerListener;
+        protected String username;
+        protected boolean serverConnection = false;
+        // Réplica que negoció tramas binarias en el saludo
+        protected boolean binaryPeer = false;
+        // Sus tramas llevan la marca del reloj híbrido
+        protected boolean peerClock = false;
+        // Flujos deflate con la réplica, si los negoció; null = sin compresión
+        private Compression.Output peerCompressor;
+        private Compression.Input peerDecompressor;
+        // El cliente pidió los bloques de historial comprimidos (/comprimir antes del nombre)
+        private boolean compressBlocks;
+        private String peerName;
+        // Salas suscritas y la que recibe lo que escribe el usuario
+        private final Set<String> joined = new LinkedHashSet<>();
+        private String currentRoom = ChatMessage.GENERAL;
+        // Posición desde la que /historial pide la página anterior de la sala actual
+        private String historyCursor;
+        // El cliente pidió ids (/reanudar antes del nombre) y, si reconecta, lo último que vio
+        private boolean withIds;
+        // El cliente numera sus mensajes (/acuses antes del nombre): "#n texto". El acuse lleva
+        // el número y una línea descartada recibe RECHAZO:n, así el cliente sabe cuál es cuál
+        private boolean numbered;
+        private Map<String, Long> resumeVector;
+        protected final OutboundQueue outbound =
+                new OutboundQueue(config.outboundCapacity, config.overflowPolicy, droppedLines);
+        // Límite de líneas de este cliente; null = sin límite
+        private final TokenBucket userLimit;
+        // Ya se le avisó de que se descartan sus líneas: no se repite hasta que se admita otra
+        private boolean throttleNotified;
+        // Aún sin saludo: puede ser una réplica antigua en el puerto compartido
+        protected boolean classifying;
+        // Último lote de la réplica ya en disco y sin acusar; -1 = nada pendiente
+        private final AtomicLong durableBatch = new AtomicLong(-1);
+        // Mientras se envía el historial de una sala recién suscrita, lo difundido espera aquí
+        // y sale después sin lo que ya iba en el bloque; null = se entrega en el acto
+        private volatile List<Outgoing> held;
+        private final Object heldLock = new Object();
+
+        Connection(boolean peerListener) {
+            this.peerListener = peerListener;
+            this.userLimit = !peerListener && config.userRate > 0
+                    ? new TokenBucket(config.userRate, config.userBurst) : null;
+        }
+
+        public boolean isServerConnection() {
+            return serverConnection;
+        }
+
+        public void sendMessage(String message) {
+            if (isListening()) {
+                deliver(message);
+            }
+        }
+
+        public void sendMessage(Outgoing message) {
+            if (!isListening()) {
+                return;
+            }
+            if (held != null) {
+                synchronized (heldLock) {
+                    if (held != null) {
+                        held.add(message);
+                        return;
+                    }
+                }
+            }
+            deliver(message.bytes(withIds));
+        }
+
+        // Se suscribe antes de tomar el historial: lo aceptado entre medias no se pierde, y lo
+        // que llegue en directo y ya iba en el bloque (origen:seq) no se repite
+        private void subscribe(String room, Supplier<Set<String>> sendSnapshot) {
+            synchronized (heldLock) {
+                held = new ArrayList<>();
+            }
+            rooms.subscribe(room, this);
+            Set<String> shown = sendSnapshot.get();
+            synchronized (heldLock) {
+                for (Outgoing message : held) {
+                    if (!shown.contains(message.message.id())) {
+                        deliver(message.bytes(withIds));
+                    }
+                }
+                held = null;
+            }
+        }
+
+        // Hasta que no se identifica, el cliente solo recibe el saludo y el historial
+        private boolean isListening() {
+            return !serverConnection && username != null;
+        }
+
+        // Con /reanudar cada mensaje lleva delante su id: "#origen:seq texto"
+        private String tag(ChatMessage message, String line) {
+            return withIds ? "#" + message.id() + " " + line : line;
+        }
+
+        // Líneas para el cliente: pasan por su cola acotada y las escribe su propio escritor
+        protected void deliver(String line) {
+            deliver(OutboundQueue.encode(line));
+        }
+
+        protected void deliver(byte[] line) {
+            if (!outbound.offer(line)) {
+                slowConsumers.increment();
+                System.out.println("[" + serverName + "] " + username + " desconectado: no lee sus mensajes");
+                abort();
+                return;
+            }
+            outboundReady();
+        }
+
+        // Varias líneas en una sola entrada de la cola; comprimidas si el cliente lo pidió
+        private void deliverBlock(String block) {
+            deliver(compressBlocks ? Compression.line(block, config.compressionThreshold, metrics) : block);
+        }
+
+        public int outboundDepth() {
+            return outbound.depth();
+        }
+
+        public long outboundDropped() {
+            return outbound.dropped();
+        }
+
+        // Respuestas a otros servidores: se escriben directamente desde el hilo que las
+        // atiende; en modo hilos las escrituras se sincronizan
+        protected abstract void writeLine(String line);
+
+        protected abstract void writeFrame(PeerFrame frame);
+
+        // Donde Compression escribe las tramas de la réplica
+        protected abstract OutputStream frameStream();
+
+        protected abstract void flushLines();
+
+        // A partir de aquí la conexión lee tramas en lugar de líneas
+        protected abstract void useFrames();
+
+        private void reply(PeerFrame frame) {
+            if (binaryPeer) {
+                writeFrame(frame);
+            } else {
+                writeLine(frame.toLine());
+            }
+        }
+
+        // Respuestas seguidas (la sincronización): con compresión salen en bloques comprimidos
+        private void replyAll(List<PeerFrame> frames) {
+            if (peerCompressor == null) {
+                frames.forEach(this::reply);
+                return;
+            }
+            synchronized (this) {
+                try {
+                    OutputStream out = frameStream();
+                    for (PeerFrame frame : frames) {
+                        peerCompressor.add(frame.bytes(peerClock), out);
+                    }
+                    peerCompressor.flush(out);
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        protected abstract void outboundReady();
+
+        // Hay un acuse de lote listo para enviar: lo escribe el escritor de la conexión
+        protected abstract void ackReady();
+
+        // El registro solo anota el lote; nunca escribe en el socket, o una réplica que no
+        // lee frenaría todo lo que espera al disco
+        private void batchDurable(long number) {
+            durableBatch.accumulateAndGet(number, Math::max);
+            ackReady();
+        }
+
+        // Acuse del último lote en disco, ya codificado; null si no hay ninguno pendiente.
+        // Los acuses son acumulados: basta con el más alto
+        protected byte[] takeAck() {
+            long number = durableBatch.getAndSet(-1);
+            if (number < 0) {
+                return null;
+            }
+            PeerFrame ack = PeerFrame.ack(number);
+            return binaryPeer ? ack.bytes(peerClock) : OutboundQueue.encode(ack.toLine());
+        }
+
+        protected boolean hasAck() {
+            return durableBatch.get() >= 0;
+        }
+
+        protected abstract void close();
+
+        // Cierre inmediato, sin vaciar la cola de salida
+        protected abstract void abort();
+
+        // Deja de leer la conexión durante nanos y después ejecuta then
+        protected abstract void delay(long nanos, Runnable then);
+
+        // Con puerto de réplicas los clientes reciben el saludo nada más conectar. Con el
+        // puerto compartido (--desfase-replicas=0) se espera CLASSIFY_MILLIS a la primera
+        // línea: un servidor antiguo envía SYNC_REQUEST, lee una sola línea y espera SYNC_DATA:,
+        // así que no debe recibir el saludo. Quien lo llama vence el plazo con classified()
+        protected void open() {
+            if (peerListener) {
+                return;
+            }
+            if (config.peerPortOffset == 0) {
+                classifying = true;
+            } else {
+                greet();
+            }
+        }
+
+        // Las funciones van en una línea aparte tras la petición del nombre: un cliente antiguo
+        // toma todo lo que sigue a "SERVIDOR:" por el nombre y esta la muestra como un aviso más
+        private void greet() {
+            deliver("SERVIDOR:" + serverName);
+            deliver("Ingresa tu nombre de usuario:");
+            // "reanudar": admite /reanudar antes del nombre
+            deliver(FEATURES_PREFIX + "reanudar, acuses" + (config.compression ? ", " + Compression.OFFER : "") + " ---");
+        }
+
+        // Venció el plazo sin que hablara: es un cliente
+        protected void classified() {
+            if (classifying) {
+                classifying = false;
+                greet();
+            }
+        }
+
+        // Solo con --desfase-replicas=0 llegan réplicas al puerto de clientes; con puerto de
+        // réplicas, el de clientes es solo para clientes
+        private boolean isPeerHello(String line) {
+            return config.peerPortOffset == 0 && isProtocolLine(line);
+        }
+
+        private void peerHello(String line) {
+            if (line.startsWith("PEER:")) {
+                // Enlace persistente de otra réplica: sigue abierto
+                serverConnection = true;
+                String[] hello = line.substring(5).split(" ");
+                peerName = hello[0];
+                // Las tramas solo en el puerto de réplicas: en el de clientes ya hay un saludo en cola
+                if (peerListener && hello.length > 1 && hello[1].equals(PeerFrame.NEGOTIATE)) {
+                    // La réplica no envía tramas hasta leer la respuesta
+                    List<String> wanted = Arrays.asList(hello).subList(2, hello.length);
+                    StringBuilder reply = new StringBuilder(PeerFrame.ACCEPT);
+                    if (wanted.contains(PeerFrame.ACKS)) {
+                        reply.append(' ').append(PeerFrame.ACKS);
+                    }
+                    if (wanted.contains(PeerFrame.CLOCK)) {
+                        reply.append(' ').append(PeerFrame.CLOCK);
+                        peerClock = true;
+                    }
+                    for (String token : wanted) {
+                        if (config.compression && token.startsWith(Compression.DEFLATE)) {
+                            // Con otro diccionario se contesta "deflate" y se comprime sin él
+                            byte[] agreed = Compression.agreed(config.dictionary, token);
+                            reply.append(' ').append(Compression.token(agreed));
+                            peerCompressor = new Compression.Output(agreed, config.compressionThreshold, metrics);
+                            peerDecompressor = new Compression.Input(agreed);
+                        }
+                    }
+                    writeLine(reply.toString());
+                    flushLines();
+                    binaryPeer = true;
+                    useFrames();
+                }
+                System.out.println("[" + serverName + "] Enlace entrante de " + hello[0]
+                        + (binaryPeer ? peerCompressor != null ? " (binario, deflate)" : " (binario)" : ""));
+            } else if (line.equals("SYNC_REQUEST") || line.startsWith("REPLICATE:")) {
+                // Petición suelta de un servidor antiguo: se atiende y se cierra
+                serverConnection = true;
+                handleServerMessage(line);
+                close();
+            } else {
+                System.out.println("[" + serverName + "] Saludo de réplica inválido, se cierra la conexión");
+                close();
+            }
+        }
+
+        protected void handleLine(String line) {
+            metrics.linesRead.increment();
+            if (serverConnection) {
+                handleServerMessage(line);
+                return;
+            }
+            if (classifying) {
+                // Habló antes del plazo: una réplica no recibe el saludo, un cliente sí
+                classifying = false;
+                if (isProtocolLine(line)) {
+                    peerHello(line);
+                    return;
+                }
+                greet();
+            }
+            long number = -1;
+            if (numbered && username != null && line.startsWith("#")) {
+                int space = line.indexOf(' ');
+                try {
+                    long parsed = Long.parseLong(line.substring(1, Math.max(1, space)));
+                    if (parsed >= 0) {
+                        number = parsed;
+                        line = line.substring(space + 1);
+                    }
+                } catch (NumberFormatException e) {
+                    // Sin número: se atiende tal cual
+                }
+            }
+            // Los límites son para los mensajes: lo de antes del nombre pasa siempre
+            if (!peerListener && username != null && !admit(line, number)) {
+                return;
+            }
+            throttleNotified = false;
+            handleClientLine(line, number);
+        }
+
+        // Límites del cliente y del nodo y modo sobrecarga. false si la línea no se atiende
+        // ahora: descartada, con la conexión cerrada o aplazada hasta que haya ficha
+        private boolean admit(String line, long number) {
+            if (overload.isOverloaded()) {
+                metrics.shed.increment();
+                reject(number);
+                throttled("--- Servidor sobrecargado: se descartan mensajes ---");
+                return false;
+            }
+            if (userLimit == null && nodeLimit == null) {
+                return true;
+            }
+            long now = System.nanoTime();
+            if (config.ratePolicy == TokenBucket.Policy.RETRASAR) {
+                long wait = Math.max(userLimit != null ? userLimit.reserve(now) : 0,
+                        nodeLimit != null ? nodeLimit.reserve(now) : 0);
+                if (wait == 0) {
+                    return true;
+                }
+                metrics.throttled.increment();
+                delay(wait, () -> handleClientLine(line, number));
+                return false;
+            }
+            // Primero el del cliente, que solo toca este hilo: si el del nodo no tiene ficha se
+            // le devuelve la suya y la línea no cuesta nada
+            if (userLimit == null || userLimit.tryAcquire(now)) {
+                if (nodeLimit == null || nodeLimit.tryAcquire(now)) {
+                    return true;
+                }
+                if (userLimit != null) {
+                    userLimit.release();
+                }
+            }
+            metrics.throttled.increment();
+            if (config.ratePolicy == TokenBucket.Policy.DESCONECTAR) {
+                System.out.println("[" + serverName + "] " + username + " desconectado: supera el límite de mensajes");
+                deliver("--- Demasiados mensajes: se cierra la conexión ---");
+                close();
+                return false;
+            }
+            reject(number);
+            throttled("--- Vas demasiado rápido: se descartan mensajes ---");
+            return false;
+        }
+
+        // La línea numerada no se atiende: el cliente no debe esperar su acuse ni reenviarla
+        private void reject(long number) {
+            if (number >= 0) {
+                deliver("RECHAZO:" + number);
+            }
+        }
+
+        // Acuse con el id: el cliente no recibe su propio mensaje y si no lo anotara se lo
+        // volverían a enviar al reanudar. Con número, el cliente sabe qué línea confirma aunque
+        // los acuses lleguen desordenados (quórums) o falten los de líneas descartadas
+        private void acknowledge(ChatMessage message, long number) {
+            deliver(number >= 0 ? "ACUSE:" + number + " " + message.id() : "#" + message.id());
+        }
+
+        // Un aviso por racha de líneas descartadas
+        private void throttled(String notice) {
+            if (!throttleNotified) {
+                throttleNotified = true;
+                deliver(notice);
+            }
+        }
+
+        private void handleClientLine(String line, long number) {
+            if (username == null) {
+                if (!peerListener && config.compression && line.equals(Compression.REQUEST)) {
+                    compressBlocks = true;
+                } else if (!peerListener && line.equals("/acuses")) {
+                    numbered = true;
+                } else if (!peerListener && line.startsWith("/reanudar")) {
+                    withIds = true;
+                    String vector = line.substring(9).trim();
+                    if (!vector.isEmpty()) {
+                        resumeVector = OriginIndex.parseVector(vector);
+                    }
+                } else if (peerListener || isPeerHello(line)) {
+                    peerHello(line);
+                } else {
+                    login(line);
+                }
+                return;
+            }
+            if (line.startsWith("/historial")) {
+                sendHistoryPage(line.substring(10).trim());
+                return;
+            }
+            if (line.startsWith("/unirse")) {
+                joinRoom(line.substring(7).trim());
+                return;
+            }
+            if (line.startsWith("/dejar")) {
+                leaveRoom(line.substring(6).trim());
+                return;
+            }
+            if (line.equals("/replicas")) {
+                deliver(peerStatus());
+                return;
+            }
+            if (line.equals("/salas")) {
+                deliver("--- Salas: " + String.join(", ", joined) + " (actual: " + currentRoom + ") ---");
+                return;
+            }
+            if (line.startsWith("/privado")) {
+                sendDirect(line.substring(8).trim());
+                return;
+            }
+
+            String text = username + ": " + line;
+            if (!PeerFrame.fits(originId, currentRoom, text)) {
+                reject(number);
+                deliver(tooLong(currentRoom));
+                return;
+            }
+            boolean recorded = record(currentRoom, text, fullMsg -> {
+                if (withIds && config.writeQuorum > 0) {
+                    broadcast(fullMsg, this);
+                    replicateToServers(fullMsg, null, awaitQuorum(fullMsg, number));
+                    return;
+                }
+                if (withIds) {
+                    acknowledge(fullMsg, number);
+                }
+                broadcast(fullMsg, this);
+                replicateToServers(fullMsg);
+            });
+            if (!recorded) {
+                reject(number);
+                throttled("--- Servidor ocupado: se descartan mensajes ---");
+            }
+        }
+
+        // El acuse sale cuando lo confirman las réplicas del quórum. Si vence el plazo sale
+        // igualmente, tras un aviso: el mensaje está aceptado aquí y el enlace lo reenviará
+        private WriteQuorum awaitQuorum(ChatMessage message, long number) {
+            WriteQuorum quorum = new WriteQuorum(config.writeQuorum, result -> {
+                if (!result.reached()) {
+                    metrics.quorumTimeouts.increment();
+                    deliver("--- Mensaje " + message.id() + " sin quórum: lo confirmaron "
+                            + result.acks() + " de " + result.required() + " réplicas ---");
+                }
+                acknowledge(message, number);
+            });
+            quorum.expireAfter(timers, config.quorumTimeoutMillis);
+            return quorum;
+        }
+
+        private void login(String name) {
+            if (name.trim().isEmpty()) {
+                close();
+                return;
+            }
+            if (isProtocolLine(name)) {
+                // Una réplica en el puerto de clientes o un nombre que la imita
+                System.out.println("[" + serverName + "] Rechazado el nombre reservado " + name);
+                deliver("--- Nombre no válido: no puede ser SYNC_REQUEST ni empezar por PEER: o REPLICATE: ---");
+                close();
+                return;
+            }
+            if (overload.isOverloaded()) {
+                // Entró antes de la sobrecarga: se le rechaza en lugar de dejarlo esperando
+                metrics.shed.increment();
+                deliver("--- Servidor sobrecargado: prueba más tarde ---");
+                close();
+                return;
+            }
+            System.out.println("[" + serverName + "] " + name + " conectado");
+
+            username = name;
+            users.put(username, this);
+            joined.add(ChatMessage.GENERAL);
+            subscribe(ChatMessage.GENERAL, () -> resumeVector != null ? sendMissed(resumeVector) : sendHistoryPage(""));
+
+            publish(ChatMessage.GENERAL, username + " se unió al chat", this);
+        }
+
+        // Se suscribe si hacía falta y la convierte en la sala actual
+        private void joinRoom(String name) {
+            if (!name.matches(RoomIndex.NAME_PATTERN)) {
+                deliver("Uso: /unirse <sala> (letras, dígitos, '_', '.' y '-')");
+                return;
+            }
+            boolean subscribing = !joined.contains(name);
+            if (subscribing && !canHold(name)) {
+                deliver("--- No se pueden crear más salas ---");
+                return;
+            }
+            currentRoom = name;
+            historyCursor = null;
+            deliver("--- Sala actual: " + name + " ---");
+            if (subscribing) {
+                joined.add(name);
+                subscribe(name, () -> sendHistoryPage(""));
+            } else {
+                sendHistoryPage("");
+            }
+
+            if (subscribing) {
+                publish(name, username + " se unió a la sala", this);
+            }
+        }
+
+        // Lo que el cliente no llegó a ver de la sala general, en el orden del historial (el
+        // mismo en todos los servidores). El vector lleva la marca de cada origen: la secuencia
+        // hasta la que el cliente no echa nada en falta. Devuelve los ids enviados
+        private Set<String> sendMissed(Map<String, Long> vector) {
+            List<String> missed = new ArrayList<>();
+            Set<String> shown = new HashSet<>();
+            rooms.room(ChatMessage.GENERAL).history.forEach(msg -> {
+                if (msg.seq > vector.getOrDefault(msg.origin, 0L)) {
+                    missed.add(tag(msg, msg.text));
+                    shown.add(msg.id());
+                }
+            });
+            StringBuilder block = new StringBuilder("--- Reanudando sesión: ")
+                    .append(missed.size()).append(" mensajes pendientes ---");
+            for (String line : missed) {
+                block.append('\n').append(line);
+            }
+            deliverBlock(block.toString());
+            return shown;
+        }
+
+        private void leaveRoom(String name) {
+            if (name.isEmpty()) {
+                name = currentRoom;
+            }
+            if (name.equals(ChatMessage.GENERAL)) {
+                deliver("No se puede dejar la sala general");
+                return;
+            }
+            if (!joined.remove(name)) {
+                deliver("No estás en la sala " + name);
+                return;
+            }
+            rooms.unsubscribe(name, this);
+            publish(name, username + " salió de la sala", this);
+
+            if (name.equals(currentRoom)) {
+                currentRoom = ChatMessage.GENERAL;
+                historyCursor = null;
+                deliver("--- Sala actual: " + currentRoom + " ---");
+            }
+        }
+
+        // Lo que no cabría en una trama de réplica no se acepta: no podría salir de aquí
+        private String tooLong(String room) {
+            int max = PeerFrame.maxText(originId, room) - PeerFrame.utf8Length(username + ": ");
+            return "--- Mensaje demasiado largo: máximo " + max + " bytes ---";
+        }
+
+        // Si el destinatario no está aquí, se pasa a las réplicas por si está en otra
+        private void sendDirect(String args) {
+            String[] parts = args.split(" ", 2);
+            if (parts.length < 2 || parts[1].trim().isEmpty()) {
+                deliver("Uso: /privado <usuario> <mensaje>");
+                return;
+            }
+            ChatMessage message = new ChatMessage(originId, 0, ChatMessage.DIRECT + parts[0], username + ": " + parts[1]);
+            if (!new PeerFrame(PeerFrame.REPLICATE, message).fits()) {
+                deliver(tooLong(message.room));
+                return;
+            }
+            if (!deliverDirect(message)) {
+                replicateToServers(message);
+            }
+            deliver("[privado a " + parts[0] + "] " + parts[1]);
+        }
+
+        // Página de historial anterior al cursor indicado o, si no hay, al de la página previa.
+        // Si quedan mensajes más antiguos se indica el comando exacto para pedirlos. Devuelve los
+        // ids enviados
+        private Set<String> sendHistoryPage(String cursor) {
+            HistoryStore.Page page;
+            try {
+                page = rooms.room(currentRoom).history.page(cursor.isEmpty() ? historyCursor : cursor,
+                        config.historyPage);
+            } catch (IllegalArgumentException e) {
+                deliver("Uso: /historial [cursor]");
+                return Collections.emptySet();
+            }
+            historyCursor = page.cursor;
+
+            // El bloque entero es una sola entrada de la cola: se escribe de una vez
+            StringBuilder block = new StringBuilder("--- Historial de mensajes ---\n");
+            if (page.hasOlder) {
+                block.append("--- Hay mensajes anteriores: /historial ").append(page.cursor).append(" ---\n");
+            }
+            Set<String> shown = new HashSet<>();
+            for (ChatMessage msg : page.messages) {
+                block.append(tag(msg, msg.text)).append('\n');
+                shown.add(msg.id());
+            }
+            block.append("--- Fin del historial ---");
+            deliverBlock(block.toString());
+            return shown;
+        }
+
+        private void handleServerMessage(String message) {
+            if (message.equals("SYNC_REQUEST")) {
+                StringBuilder syncData = new StringBuilder("SYNC_DATA:");
+                rooms.room(ChatMessage.GENERAL).history.forEach(msg -> syncData.append(msg.text).append("||"));
+                writeLine(syncData.toString());
+            } else {
+                PeerFrame frame = PeerFrame.parseLine(message);
+                if (frame != null) {
+                    handleFrame(frame);
+                } else if (message.startsWith("REPLICATE:")) {
+                    // Réplica antigua sin origen: se acepta como mensaje propio. No reenvía nada, así
+                    // que con el registro lleno se pierde
+                    record(ChatMessage.GENERAL, message.substring(10), accepted -> broadcast(accepted, null));
+                }
+            }
+            flushLines();
+        }
+
+        // Cuerpo de una trama tal como llega: una comprimida lleva varias dentro
+        protected void handleFrameBody(byte[] data, int offset, int length) throws IOException {
+            if (data[offset] == PeerFrame.DEFLATED && peerDecompressor != null) {
+                peerDecompressor.inflate(data, offset + 1, length - 1, this::decodeFrame);
+            } else {
+                decodeFrame(data, offset, length);
+            }
+        }
+
+        private void decodeFrame(byte[] data, int offset, int length) throws IOException {
+            handleFrame(PeerFrame.decode(data, offset, length, peerClock));
+        }
+
+        protected void handleFrame(PeerFrame frame) {
+            metrics.framesRead.increment();
+            if (frame.type == PeerFrame.SYNC_SINCE) {
+                Map<String, Long> vector = OriginIndex.parseVector(frame.message.text);
+                List<PeerFrame> missing = new ArrayList<>();
+                for (ChatMessage msg : syncIndex.since(vector, SYNC_BATCH)) {
+                    PeerFrame reply = new PeerFrame(PeerFrame.SYNC_MSG, msg);
+                    if (reply.fits()) {
+                        missing.add(reply);
+                    } else {
+                        System.out.println("[" + serverName + "] Mensaje demasiado grande para sincronizar: " + msg.id());
+                    }
+                }
+                replyAll(missing);
+            } else if (frame.type == PeerFrame.REPLICATE) {
+                ChatMessage message = frame.message;
+                if (message.isDirect()) {
+                    deliverDirect(message);
+                } else {
+                    boolean accepted = accept(stamp(message), visible -> {
+                        broadcast(visible, null);
+                        if (config.isGossip()) {
+                            // Solo se reenvía lo nuevo: los duplicados cortan la propagación
+                            replicateToServers(visible, peerName, null);
+                        }
+                    });
+                    if (!accepted) {
+                        logFull();
+                    }
+                }
+            } else if (frame.type == PeerFrame.MEMBERS) {
+                handleMembers(frame.message.text);
+            } else if (frame.type == PeerFrame.PING) {
+                reply(PeerFrame.control(PeerFrame.PONG));
+            } else if (frame.type == PeerFrame.BATCH) {
+                // Las tramas anteriores del lote ya están aceptadas: llegan en orden. El acuse
+                // espera al registro, que es lo que promete a quien espera quórum
+                long number = frame.message.seq;
+                if (!whenDurable(() -> batchDurable(number))) {
+                    logFull();
+                }
+            }
+        }
+
+        // El registro no admite más: se corta la réplica sin acusar el lote, que su enlace
+        // reenviará al reconectar, cuando quizá el disco ya se haya puesto al día
+        private void logFull() {
+            System.out.println("[" + serverName + "] Registro lleno: se corta la réplica " + peerName);
+            abort();
+        }
+
+        protected void cleanup() {
+            clients.remove(this);
+            outbound.close();
+            if (peerCompressor != null) {
+                peerCompressor.end();
+                peerDecompressor.end();
+            }
+            if (username != null && !serverConnection) {
+                for (String room : joined) {
+                    rooms.unsubscribe(room, this);
+                }
+                users.remove(username, this);
+                publish(ChatMessage.GENERAL, username + " salió del chat", this);
+                System.out.println("[" + serverName + "] " + username + " desconectado");
+            }
+        }
+    }
+
+    class ClientHandler extends Connection implements Runnable {
+        private Socket socket;
+        private OutputStream out;
+        private LineReader in;
+        private OutputStream frameOut;
+        private volatile boolean closed;
+        // Hay un hilo escritor vaciando la cola de salida
+        private volatile boolean writing;
+        // Despierta al escritor de acuses de una réplica
+        private final Semaphore ackSignal = new Semaphore(0);
+
+        public ClientHandler(Socket socket, boolean peerListener) {
+            super(peerListener);
+            this.socket = socket;
+        }
+
+        @Override
+        protected synchronized void writeLine(String line) {
+            if (out != null) {
+                try {
+                    out.write(OutboundQueue.encode(line));
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        @Override
+        protected synchronized void writeFrame(PeerFrame frame) {
+            try {
+                frameOut.write(frame.bytes(peerClock));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        protected OutputStream frameStream() {
+            return frameOut;
+        }
+
+        @Override
+        protected synchronized void flushLines() {
+            try {
+                out.flush();
+                if (frameOut != null) {
+                    frameOut.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        protected void useFrames() {
+            try {
+                frameOut = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        protected void outboundReady() {
+            // El escritor espera en la cola
+        }
+
+        @Override
+        protected void ackReady() {
+            ackSignal.release();
+        }
+
+        // Como en nio, lo que ya está en la cola (p. ej. el motivo del cierre) sale antes de
+        // cortar: el escritor lo envía y cierra. Si el cliente no lee, se corta al vencer el plazo
+        @Override
+        protected void close() {
+            closed = true;
+            if (writing) {
+                outbound.finish();
+                timers.schedule(this::abort, CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                abort();
+            }
+        }
+
+        @Override
+        protected void abort() {
+            closed = true;
+            ackSignal.release();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+
+        @Override
+        protected void delay(long nanos, Runnable then) {
+            // Espera el propio hilo lector: mientras no lee, TCP frena al cliente
+            try {
+                Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+            } catch (InterruptedException e) {
+                close();
+                return;
+            }
+            then.run();
+        }
+
+        private void writeLoop() {
+            try {
+                byte[] line;
+                while ((line = outbound.take()) != null) {
+                    // Todo lo que ya esté en cola va en el mismo vaciado
+                    do {
+                        out.write(line);
+                    } while ((line = outbound.poll()) != null);
+                    out.flush();
+                }
+            } catch (InterruptedException | IOException e) {
+                // Fin del escritor; el lector ve el socket cerrado
+            }
+            abort();
+        }
+
+        // La primera línea, si llega antes del plazo, decide si es una réplica
+        private void classify() throws IOException {
+            socket.setSoTimeout((int) CLASSIFY_MILLIS);
+            String first;
+            try {
+                first = in.readLine();
+            } catch (SocketTimeoutException e) {
+                socket.setSoTimeout(0);
+                classified();
+                return;
+            }
+            socket.setSoTimeout(0);
+            if (first != null) {
+                handleLine(first);
+            } else {
+                closed = true;
+            }
+        }
+
+        // Escritor de acuses de una réplica binaria: el lector sigue leyendo lotes mientras
+        // este hilo, y solo él, espera a que la réplica lea el acuse
+        private void ackLoop() {
+            try {
+                while (!closed) {
+                    ackSignal.acquire();
+                    ackSignal.drainPermits();
+                    byte[] ack = takeAck();
+                    if (ack != null && !closed) {
+                        synchronized (this) {
+                            frameOut.write(ack);
+                            frameOut.flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                in = new LineReader(socket.getInputStream(), OutboundQueue.CHARSET, NioReactor.MAX_LINE);
+                out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER);
+
+                open();
+                if (!peerListener) {
+                    writing = true;
+                    workerThreads.newThread(this::writeLoop).start();
+                }
+                if (classifying) {
+                    classify();
+                }
+
+                String message;
+                while (!closed && !binaryPeer && (message = in.readLine()) != null) {
+                    handleLine(message);
+                }
+                if (binaryPeer) {
+                    workerThreads.newThread(this::ackLoop).start();
+                    // Lo que el lector de líneas ya tenga leído es el principio de las tramas
+                    DataInputStream frames = new DataInputStream(new BufferedInputStream(in.remaining()));
+                    byte[] body;
+                    while (!closed && (body = PeerFrame.readBody(frames)) != null) {
+                        handleFrameBody(body, 0, body.length);
+                        // Las respuestas a un lote salen juntas
+                        if (frames.available() == 0) {
+                            flushLines();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (!serverConnection && !closed) {
+                    System.err.println("[" + serverName + "] Error: " + e.getMessage());
+                }
+            } finally {
+                cleanup();
+                close();
+            }
+        }
+    }
+
+    class NioConnection extends Connection implements NioReactor.Listener {
+        private final NioReactor.Channel channel;
+        // Cada escritura de Compression es un envío al canal
+        private final OutputStream frameStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                channel.send(new byte[] {(byte) b});
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) {
+                channel.send(Arrays.copyOfRange(data, offset, offset + length));
+            }
+        };
+
+        NioConnection(NioReactor.Channel channel, boolean peerListener) {
+            super(peerListener);
+            this.channel = channel;
+        }
+
+        @Override
+        protected void writeLine(String line) {
+            channel.send(line);
+        }
+
+        @Override
+        protected void writeFrame(PeerFrame frame) {
+            channel.send(frame.bytes(peerClock));
+        }
+
+        @Override
+        protected OutputStream frameStream() {
+            return frameStream;
+        }
+
+        @Override
+        protected void flushLines() {
+            // El reactor vacía una vez por vuelta
+        }
+
+        @Override
+        protected void useFrames() {
+            channel.useFrames();
+        }
+
+        @Override
+        protected void outboundReady() {
+            channel.outboundReady();
+        }
+
+        @Override
+        protected void ackReady() {
+            channel.outboundReady();
+        }
+
+        @Override
+        protected void close() {
+            channel.close();
+        }
+
+        @Override
+        protected void abort() {
+            channel.abort();
+        }
+
+        @Override
+        protected void delay(long nanos, Runnable then) {
+            // El reactor no puede esperar: la conexión deja de leerse y el plazo la reanuda
+            channel.pause();
+            timers.schedule(() -> channel.resume(then), nanos, TimeUnit.NANOSECONDS);
+        }
+
+        // El reactor recoge el acuse pendiente al vaciar, en su propio hilo
+        @Override
+        public byte[] pollOutbound() {
+            byte[] ack = takeAck();
+            return ack != null ? ack : outbound.poll();
+        }
+
+        @Override
+        public boolean hasOutbound() {
+            return hasAck() || !outbound.isEmpty();
+        }
+
+        @Override
+        public void onOpen() {
+            open();
+            if (classifying) {
+                timers.schedule(() -> channel.runInReactor(this::classified), CLASSIFY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onLine(String line) {
+            handleLine(line);
+        }
+
+        @Override
+        public void onFrame(byte[] data, int offset, int length) {
+            try {
+                handleFrameBody(data, offset, length);
+            } catch (IOException e) {
+                System.err.println("[" + serverName + "] Trama inválida: " + e.getMessage());
+                channel.abort();
+            }
+        }
+
+        @Override
+        public void onClose() {
+            cleanup();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Uso: java chat.ChatServer <puerto> <nombre> [replica1:puerto1] [replica2:puerto2] ... [--opcion=valor]");
+            System.out.println("Ejemplo: java chat.ChatServer 5000 Server1 localhost:5001 localhost:5002");
+            ServerConfig.printUsage();
+            return;
+        }
+
+        int port = Integer.parseInt(args[0]);
+        String serverName = args[1];
+        if (!serverName.matches("[\\w.-]+")) {
+            System.err.println("El nombre solo admite letras, dígitos, '_', '.' y '-'");
+            return;
+        }
+        List<String> replicas = new ArrayList<>();
+        ServerConfig config = new ServerConfig();
+        
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                try {
+                    config.apply(args[i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    ServerConfig.printUsage();
+                    return;
+                }
+            } else {
+                replicas.add(args[i]);
+            }
+        }
+
+        ChatServer server = new ChatServer(port, serverName, replicas, config);
+        server.start();
+    }
+}
@@ -0,0 +1,249 @@
+package chat;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+// Compresión deflate de lo que viaja en bloque: lotes de replicación y sincronizaciones
+// entre réplicas, e historial para los clientes que la piden. Se negocia en el saludo y
+// solo se comprime por encima de un umbral: una línea de chat suelta sale tal cual.
+// Entre réplicas cada sentido de la conexión es un único flujo deflate (SYNC_FLUSH por
+// bloque), así que cada lote aprovecha lo que se envió en los anteriores
+public class Compression {
+    // Capacidad del saludo de réplicas: "deflate=<adler32 del diccionario>" o, sin
+    // diccionario, "deflate". Si los diccionarios no coinciden se comprime sin él
+    static final String DEFLATE = "deflate";
+    // El servidor lo anuncia en el saludo a clientes y el cliente lo pide antes del nombre
+    static final String OFFER = "comprimir";
+    static final String REQUEST = "/comprimir";
+    // Línea con un bloque para clientes: deflate con el diccionario de serie, en Base64
+    static final String LINE_PREFIX = "~deflate:";
+    // Sin comprimir, como mucho la mitad de una trama: comprimido cabe siempre en una
+    static final int MAX_BLOCK = PeerFrame.MAX_FRAME / 2;
+
+    // Lo que más se repite en el tráfico del chat; deflate llega antes a lo del final
+    static final byte[] CHAT_DICTIONARY = String.join(" ",
+            "que de no a la el es y en lo un por qué me una te los se con para mi está si bien pero",
+            "yo eso las sí su tu aquí del al como le más esto ya todo esta vamos muy hay ahora algo",
+            "estoy tengo nada cuando ha este sé estás así puedo tú tienes quiero nos creo dónde mañana",
+            "hoy gracias hola buenos días buenas tardes noches vale claro jaja jajaja adiós luego ok",
+            "[privado a ] --- Sala actual: --- Hay mensajes anteriores: /historial general",
+            "--- Historial de mensajes --- --- Fin del historial --- salió de la sala se unió a la sala",
+            "salió del chat se unió al chat").getBytes(StandardCharsets.UTF_8);
+
+    // Deflaters de los bloques para clientes: cada uno reserva unos cientos de KB nativos y
+    // se necesita uno por bloque en curso, no por conexión
+    private static final Queue<Deflater> LINE_DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    static String token(byte[] dictionary) {
+        return dictionary == null ? DEFLATE : DEFLATE + "=" + Long.toHexString(adler(dictionary));
+    }
+
+    // Diccionario que se usa con la réplica que contestó con accepted; null = sin diccionario
+    static byte[] agreed(byte[] dictionary, String accepted) {
+        return accepted.equals(token(dictionary)) ? dictionary : null;
+    }
+
+    private static long adler(byte[] data) {
+        Adler32 adler = new Adler32();
+        adler.update(data);
+        return adler.getValue();
+    }
+
+    // Un sentido de un enlace entre réplicas: acumula tramas codificadas y las envía en
+    // bloques, comprimidos si pasan del umbral. No es seguro entre hilos
+    static final class Output {
+        private final Deflater deflater = new Deflater();
+        private final int threshold;
+        private final LongAdder rawBytes;
+        private final LongAdder compressedBytes;
+        private byte[] block = new byte[8192];
+        private int length;
+        private byte[] compressed = new byte[8192];
+
+        Output(byte[] dictionary, int threshold, Metrics metrics) {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            this.threshold = threshold;
+            this.rawBytes = metrics.uncompressedBytes;
+            this.compressedBytes = metrics.compressedBytes;
+        }
+
+        // Añade una trama codificada al bloque; si no cabe, antes se envía lo acumulado
+        void add(byte[] frame, OutputStream out) throws IOException {
+            if (length > 0 && length + frame.length > MAX_BLOCK) {
+                flush(out);
+            }
+            if (length + frame.length > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, length + frame.length));
+            }
+            System.arraycopy(frame, 0, block, length, frame.length);
+            length += frame.length;
+        }
+
+        // Envía lo acumulado: en una trama DEFLATED o, por debajo del umbral, tal cual
+        void flush(OutputStream out) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (length < threshold || length > MAX_BLOCK) {
+                out.write(block, 0, length);
+                length = 0;
+                return;
+            }
+            deflater.setInput(block, 0, length);
+            int n = 5;
+            while (true) {
+                n += deflater.deflate(compressed, n, compressed.length - n, Deflater.SYNC_FLUSH);
+                // Con SYNC_FLUSH la salida está completa si no llenó el espacio
+                if (n < compressed.length) {
+                    break;
+                }
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            int frameLength = n - 4;
+            compressed[0] = (byte) (frameLength >>> 24);
+            compressed[1] = (byte) (frameLength >>> 16);
+            compressed[2] = (byte) (frameLength >>> 8);
+            compressed[3] = (byte) frameLength;
+            compressed[4] = PeerFrame.DEFLATED;
+            out.write(compressed, 0, n);
+            rawBytes.add(length);
+            compressedBytes.add(n);
+            length = 0;
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    interface FrameHandler {
+        void onFrame(byte[] data, int offset, int length) throws IOException;
+    }
+
+    // El otro sentido: descomprime cada trama DEFLATED y entrega las tramas que lleva
+    static final class Input {
+        private final Inflater inflater = new Inflater();
+        private final byte[] dictionary;
+        private byte[] buffer = new byte[16384];
+
+        Input(byte[] dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        // Cuerpo de la trama DEFLATED sin el tipo; el array que recibe handler se reutiliza
+        void inflate(byte[] data, int offset, int length, FrameHandler handler) throws IOException {
+            inflater.setInput(data, offset, length);
+            int n = 0;
+            try {
+                while (true) {
+                    if (n == buffer.length) {
+                        if (n >= PeerFrame.MAX_FRAME) {
+                            throw new IOException("bloque comprimido demasiado grande");
+                        }
+                        buffer = Arrays.copyOf(buffer, n * 2);
+                    }
+                    int got = inflater.inflate(buffer, n, buffer.length - n);
+                    n += got;
+                    if (got == 0 && inflater.needsDictionary()) {
+                        if (dictionary == null || inflater.getAdler() != (int) adler(dictionary)) {
+                            throw new IOException("diccionario de compresión distinto");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (got == 0) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("bloque comprimido inválido: " + e.getMessage());
+            }
+            if (inflater.getRemaining() > 0) {
+                throw new IOException("bloque comprimido inválido");
+            }
+            int pos = 0;
+            while (pos + 4 <= n) {
+                int frameLength = ((buffer[pos] & 0xff) << 24) | ((buffer[pos + 1] & 0xff) << 16)
+                        | ((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+                if (frameLength <= 0 || pos + 4 + frameLength > n || buffer[pos + 4] == PeerFrame.DEFLATED) {
+                    throw new IOException("trama inválida en bloque comprimido");
+                }
+                handler.onFrame(buffer, pos + 4, frameLength);
+                pos += 4 + frameLength;
+            }
+            if (pos != n) {
+                throw new IOException("bloque comprimido incompleto");
+            }
+        }
+
+        void end() {
+            inflater.end();
+        }
+    }
+
+    // Bloque de líneas para un cliente que pidió compresión; por debajo del umbral, tal cual
+    static String line(String block, int threshold, Metrics metrics) {
+        byte[] raw = block.getBytes(OutboundQueue.CHARSET);
+        if (raw.length < threshold) {
+            return block;
+        }
+        Deflater deflater = LINE_DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        try {
+            deflater.setDictionary(CHAT_DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            String encoded = Base64.getEncoder().encodeToString(out.toByteArray());
+            if (encoded.length() + LINE_PREFIX.length() >= raw.length) {
+                return block;
+            }
+            metrics.uncompressedBytes.add(raw.length);
+            metrics.compressedBytes.add(encoded.length() + LINE_PREFIX.length());
+            return LINE_PREFIX + encoded;
+        } finally {
+            deflater.reset();
+            LINE_DEFLATERS.offer(deflater);
+        }
+    }
+
+    // Las líneas de un bloque LINE_PREFIX, para el lado del cliente
+    static String[] lines(String line) throws IOException {
+        byte[] data;
+        try {
+            data = Base64.getDecoder().decode(line.substring(LINE_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("bloque comprimido inválido: " + e.getMessage());
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(CHAT_DICTIONARY);
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("bloque comprimido incompleto");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toString(OutboundQueue.CHARSET).split("\n", -1);
+        } catch (DataFormatException e) {
+            throw new IOException("bloque comprimido inválido: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package chat;
+
+// Detector de fallos phi-accrual: en lugar de un plazo fijo, compara el silencio actual
+// con la distribución de los intervalos entre latidos recientes. phi = 1 equivale a un
+// 10 % de probabilidad de equivocarse al dar la réplica por caída, phi = 8 a 10^-8
+public class FailureDetector {
+    static final int WINDOW = 100;
+
+    private final long expectedMillis;
+    private final double[] intervals = new double[WINDOW];
+    private int count;
+    private int next;
+    private long last;
+
+    // expectedMillis: intervalo entre latidos, para arrancar sin historial
+    public FailureDetector(long expectedMillis) {
+        this.expectedMillis = expectedMillis;
+    }
+
+    // Nuevo enlace: se olvida el historial anterior
+    public synchronized void reset(long now) {
+        count = 0;
+        next = 0;
+        last = now;
+        add(expectedMillis);
+    }
+
+    public synchronized void heartbeat(long now) {
+        add(now - last);
+        last = now;
+    }
+
+    private void add(double interval) {
+        intervals[next] = interval;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+    }
+
+    public synchronized double phi(long now) {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = 0;
+        for (int i = 0; i < count; i++) {
+            mean += intervals[i];
+        }
+        mean /= count;
+        double variance = 0;
+        for (int i = 0; i < count; i++) {
+            variance += (intervals[i] - mean) * (intervals[i] - mean);
+        }
+        // Cualquier trama cuenta como latido: con tráfico los intervalos se acercan a 0 y
+        // una pausa de milisegundos parecería una caída. Los PING garantizan al menos uno
+        // por intervalo esperado, así que la media no baja de ahí
+        mean = Math.max(mean, expectedMillis);
+        // Con latidos muy regulares la desviación tiende a 0 y cualquier retraso dispararía phi
+        double deviation = Math.max(Math.sqrt(variance / count), mean / 4);
+
+        // Aproximación logística de la normal acumulada
+        double y = (now - last - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (now - last > mean) {
+            return -Math.log10(e / (1 + e));
+        }
+        return -Math.log10(1 - 1 / (1 + e));
+    }
+
+    public synchronized long silenceMillis(long now) {
+        return now - last;
+    }
+}
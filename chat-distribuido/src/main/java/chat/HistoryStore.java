@@ -0,0 +1,150 @@
+package chat;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+// Historial acotado y ordenado por la marca del reloj híbrido (origen y secuencia
+// desempatan): el mismo orden en todos los nodos, llegue cada mensaje cuando llegue. Un
+// mensaje tardío se inserta en su sitio en O(log n) sin reordenar nada; el índice hash por
+// id descarta duplicados en O(1) y las lecturas no bloquean a quien añade
+public class HistoryStore {
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final ConcurrentSkipListSet<ChatMessage> messages = new ConcurrentSkipListSet<>(ChatMessage.ORDER);
+    private final ConcurrentHashMap<String, ChatMessage> byId = new ConcurrentHashMap<>();
+    private final OriginIndex origins;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // El tamaño del conjunto cuesta O(n): se lleva aparte
+    private volatile int size;
+
+    // maxAgeMillis = 0 desactiva el límite de antigüedad
+    public HistoryStore(int capacity, long maxAgeMillis) {
+        this(capacity, maxAgeMillis, new OriginIndex());
+    }
+
+    // Varios historiales (p. ej. uno por sala) pueden compartir el índice por origen: las
+    // secuencias son del origen y solo quedan sin huecos si se ven todas juntas
+    public HistoryStore(int capacity, long maxAgeMillis, OriginIndex origins) {
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.origins = origins;
+    }
+
+    // false si el mensaje ya se conocía o no llega a quedarse. Lleno, sale el más antiguo
+    // según el orden, que puede ser el propio mensaje si llega muy tarde: queda como visto,
+    // pero no se difunde ni se reenvía
+    public boolean add(ChatMessage message) {
+        if (byId.containsKey(message.id())) {
+            return false;
+        }
+        appendLock.lock();
+        try {
+            if (byId.containsKey(message.id()) || !origins.add(message)) {
+                return false;
+            }
+            messages.add(message);
+            byId.put(message.id(), message);
+            size = size + 1;
+            if (size > capacity) {
+                evict(messages.first());
+            }
+
+            if (maxAgeMillis > 0) {
+                expire(System.currentTimeMillis() - maxAgeMillis);
+            }
+            return byId.containsKey(message.id());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // La antigüedad es la de la marca, no la de llegada: todos los nodos olvidan lo mismo
+    private void expire(long cutoff) {
+        while (size > 1) {
+            ChatMessage oldest = messages.first();
+            if (HybridClock.millis(oldest.hlc) >= cutoff) {
+                break;
+            }
+            evict(oldest);
+        }
+    }
+
+    private void evict(ChatMessage message) {
+        messages.remove(message);
+        byId.remove(message.id());
+        origins.remove(message);
+        size = size - 1;
+    }
+
+    public void markSeen(String origin, long seq) {
+        origins.markSeen(origin, seq);
+    }
+
+    public boolean contains(String id) {
+        return byId.containsKey(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static final class Page {
+        final List<ChatMessage> messages;
+        // Primer mensaje de la página: la siguiente se pide antes de él
+        final String cursor;
+        final boolean hasOlder;
+
+        Page(List<ChatMessage> messages, String cursor, boolean hasOlder) {
+            this.messages = messages;
+            this.cursor = cursor;
+            this.hasOlder = hasOlder;
+        }
+    }
+
+    // Hasta limit mensajes anteriores al cursor before (null = los últimos).
+    // IllegalArgumentException si el cursor no es válido
+    public Page page(String before, int limit) {
+        NavigableSet<ChatMessage> older = before == null ? messages : messages.headSet(parseCursor(before), false);
+        Iterator<ChatMessage> newestFirst = older.descendingIterator();
+        List<ChatMessage> page = new ArrayList<>(limit);
+        while (page.size() < limit && newestFirst.hasNext()) {
+            page.add(newestFirst.next());
+        }
+        Collections.reverse(page);
+        String cursor = page.isEmpty() ? before : cursor(page.get(0));
+        return new Page(page, cursor, newestFirst.hasNext());
+    }
+
+    // "marca:origen:seq", sin espacios para ir en el comando /historial
+    static String cursor(ChatMessage message) {
+        return message.hlc + ":" + message.id();
+    }
+
+    static ChatMessage parseCursor(String cursor) {
+        int first = cursor.indexOf(':');
+        int last = cursor.lastIndexOf(':');
+        if (first <= 0 || last <= first + 1) {
+            throw new IllegalArgumentException("Cursor inválido: " + cursor);
+        }
+        return new ChatMessage(cursor.substring(first + 1, last), Long.parseLong(cursor.substring(last + 1)),
+                ChatMessage.GENERAL, "", Long.parseLong(cursor.substring(0, first)));
+    }
+
+    // Recorre el historial en orden sin bloquear a quien añade: lo que se añada o se
+    // desaloje durante el recorrido puede verse o no
+    public void forEach(Consumer<ChatMessage> action) {
+        for (ChatMessage message : messages) {
+            action.accept(message);
+        }
+    }
+
+    public String vector() {
+        return origins.vector();
+    }
+
+    public List<ChatMessage> since(Map<String, Long> vector, int limit) {
+        return origins.since(vector, limit);
+    }
+}
@@ -0,0 +1,51 @@
+package chat;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+// Reloj lógico híbrido: milisegundos de pared en los 48 bits altos y un contador en los 16
+// bajos. No retrocede aunque lo haga el reloj del sistema y, tras ver la marca de otro
+// nodo, queda por delante de ella: un mensaje siempre ordena después de lo que su autor
+// ya había recibido, y entre nodos sin relación se sigue la hora de pared
+public class HybridClock {
+    static final int LOGICAL_BITS = 16;
+    // Un nodo con la hora muy adelantada no arrastra a los demás
+    static final long MAX_DRIFT_MILLIS = 60_000;
+
+    private final AtomicLong last = new AtomicLong();
+    private final LongSupplier wallClock;
+
+    public HybridClock() {
+        this(System::currentTimeMillis);
+    }
+
+    // Con otra hora de pared, para las pruebas
+    HybridClock(LongSupplier wallClock) {
+        this.wallClock = wallClock;
+    }
+
+    // Marca para un mensaje aceptado aquí
+    public long now() {
+        long physical = wallClock.getAsLong() << LOGICAL_BITS;
+        return last.updateAndGet(previous -> Math.max(previous + 1, physical));
+    }
+
+    // Marca de un mensaje de otro nodo o del registro; false si está demasiado adelantada
+    // para seguirla (el mensaje conserva su marca igualmente)
+    public boolean observe(long remote) {
+        if (millis(remote) - wallClock.getAsLong() > MAX_DRIFT_MILLIS) {
+            return false;
+        }
+        last.accumulateAndGet(remote, Math::max);
+        return true;
+    }
+
+    public static long millis(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    // Para lo que llega sin marca: registros antiguos, réplicas en texto
+    public static long fromMillis(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+}
@@ -0,0 +1,84 @@
+package chat;
+
+import java.util.concurrent.atomic.*;
+
+// Histograma de latencias al estilo HDR: cubetas lineales dentro de cada potencia de dos,
+// así el error relativo es fijo (~3 %) desde nanosegundos hasta minutos con menos de mil
+// contadores. Registrar es sin bloqueos: un incremento atómico y dos acumuladores
+public class LatencyHistogram {
+    // 2^SUB_BITS cubetas por potencia de dos en la mitad superior del rango
+    static final int SUB_BITS = 5;
+    static final int SUB = 1 << SUB_BITS;
+    static final int HALF = SUB / 2;
+    static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        total.increment();
+        sum.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // Mide desde started (System.nanoTime) hasta ahora
+    public void since(long started) {
+        record(System.nanoTime() - started);
+    }
+
+    static int index(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    // Mayor valor que cae en la cubeta: el percentil nunca se queda corto
+    static long highest(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = (index - SUB) / HALF + 1;
+        long mantissa = (index - SUB) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // q entre 0 y 1; aproximado mientras se sigue registrando
+    public long percentile(double q) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,71 @@
+package chat;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+// Lector de líneas con un único búfer de bytes reutilizado: cada línea cuesta solo su
+// String, sin el char[] intermedio de BufferedReader ni un StringBuilder por línea.
+// Es lo mismo que hace el reactor en modo nio
+public class LineReader {
+    private final InputStream in;
+    private final Charset charset;
+    private final int maxLine;
+    private byte[] buffer = new byte[8192];
+    // [start, end) está leído y aún no entregado
+    private int start;
+    private int end;
+
+    public LineReader(InputStream in, Charset charset, int maxLine) {
+        this.in = in;
+        this.charset = charset;
+        this.maxLine = maxLine;
+    }
+
+    // Sin el salto de línea (ni el '\r' previo); null al final del flujo
+    public String readLine() throws IOException {
+        int scan = start;
+        while (true) {
+            for (; scan < end; scan++) {
+                if (buffer[scan] == '\n') {
+                    int length = scan - start;
+                    if (length > 0 && buffer[scan - 1] == '\r') {
+                        length--;
+                    }
+                    String line = new String(buffer, start, length, charset);
+                    start = scan + 1;
+                    return line;
+                }
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                scan -= start;
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                if (buffer.length >= maxLine) {
+                    throw new IOException("línea de más de " + maxLine + " bytes");
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxLine));
+            }
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0) {
+                if (end == start) {
+                    return null;
+                }
+                // Última línea sin salto
+                String line = new String(buffer, start, end - start, charset);
+                start = end;
+                return line;
+            }
+            end += n;
+        }
+    }
+
+    // El resto del flujo, empezando por lo ya leído que no era una línea completa: para
+    // seguir con tramas en el mismo socket tras el saludo
+    public InputStream remaining() {
+        return new SequenceInputStream(new ByteArrayInputStream(buffer, start, end - start), in);
+    }
+}
@@ -0,0 +1,477 @@
+package chat;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Generador de carga: muchos usuarios simulados en la sala general, repartidos entre los
+// servidores, envían a un ritmo fijo. Cada mensaje lleva su hora de envío, así que cada
+// entrega da una latencia (también las que pasan por una réplica) y cuando lo han
+// recibido todos los demás usuarios, la del mensaje completo
+public class LoadGenerator {
+    static final String MARK = " carga ";
+    static final String HISTORY_END = "--- Fin del historial ---";
+
+    private final List<ChatClient.ServerInfo> servers;
+    private final int users;
+    private final double rate;
+    private final long seconds;
+    private final long warmupSeconds;
+    private final Reader[] readers;
+    private final List<User> connected = new ArrayList<>();
+    private final CountDownLatch loggedIn;
+    // Entregas pendientes de cada mensaje medido
+    private final ConcurrentHashMap<Long, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LatencyHistogram delivery = new LatencyHistogram();
+    private final LatencyHistogram fanout = new LatencyHistogram();
+    private final LatencyHistogram login = new LatencyHistogram();
+    private final LongAdder delivered = new LongAdder();
+    private volatile boolean measuring;
+    // Inicio de la medida, tras el calentamiento
+    private long measureStarted;
+
+    LoadGenerator(List<ChatClient.ServerInfo> servers, int users, double rate, long seconds,
+            long warmupSeconds, int readerThreads) throws IOException {
+        this.servers = servers;
+        this.users = users;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.warmupSeconds = warmupSeconds;
+        this.loggedIn = new CountDownLatch(users);
+        this.readers = new Reader[readerThreads];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Reader();
+            Thread thread = new Thread(readers[i], "carga-lector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Un usuario simulado: el lector lo recorre en su hilo, el emisor solo escribe
+    final class User {
+        final String name;
+        final SocketChannel channel;
+        final long connectedAt = System.nanoTime();
+        final ByteBuffer in = ByteBuffer.allocate(8192);
+        byte[] line = new byte[256];
+        int lineLength;
+        volatile boolean ready;
+
+        User(String name, SocketChannel channel) {
+            this.name = name;
+            this.channel = channel;
+        }
+
+        // Solo el hilo emisor escribe; el canal no bloquea, así que se insiste hasta el final
+        void send(String text) throws IOException {
+            ByteBuffer out = ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                if (channel.write(out) == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+
+        void onLine(String text) {
+            if (!ready) {
+                if (text.equals(HISTORY_END)) {
+                    ready = true;
+                    login.since(connectedAt);
+                    loggedIn.countDown();
+                }
+                return;
+            }
+            // "usuarioN: carga <id> <nanoTime>"; cualquier otra línea (avisos del servidor,
+            // mensajes de otros) no cuenta
+            int mark = text.indexOf(MARK);
+            if (mark < 0) {
+                return;
+            }
+            String[] parts = text.substring(mark + MARK.length()).split(" ");
+            if (parts.length != 2) {
+                return;
+            }
+            long id;
+            long sentAt;
+            try {
+                id = Long.parseLong(parts[0]);
+                sentAt = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            long latency = System.nanoTime() - sentAt;
+            AtomicInteger remaining = pending.get(id);
+            if (remaining == null) {
+                // Calentamiento o ya dado por perdido
+                return;
+            }
+            delivery.record(latency);
+            delivered.increment();
+            if (remaining.decrementAndGet() == 0) {
+                fanout.record(latency);
+                pending.remove(id);
+            }
+        }
+    }
+
+    // Un Selector por hilo lector, como los reactores del servidor
+    final class Reader implements Runnable {
+        private final Selector selector;
+        private final Queue<User> added = new ConcurrentLinkedQueue<>();
+
+        Reader() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void add(User user) {
+            added.add(user);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    User user;
+                    while ((user = added.poll()) != null) {
+                        user.channel.configureBlocking(false);
+                        user.channel.register(selector, SelectionKey.OP_READ, user);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            read(key, (User) key.attachment());
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error en lector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void read(SelectionKey key, User user) {
+            int n;
+            try {
+                n = user.channel.read(user.in);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                key.cancel();
+                System.err.println(user.name + ": conexión cerrada por el servidor");
+                return;
+            }
+            ByteBuffer in = user.in;
+            in.flip();
+            while (in.hasRemaining()) {
+                byte b = in.get();
+                if (b == '\n') {
+                    user.onLine(new String(user.line, 0, user.lineLength, StandardCharsets.UTF_8));
+                    user.lineLength = 0;
+                } else {
+                    if (user.lineLength == user.line.length) {
+                        user.line = Arrays.copyOf(user.line, user.line.length * 2);
+                    }
+                    user.line[user.lineLength++] = b;
+                }
+            }
+            in.clear();
+        }
+    }
+
+    // Conecta a todos y espera a que cada uno reciba su historial
+    void connect() throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            ChatClient.ServerInfo server = servers.get(i % servers.size());
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(server.host, server.port));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            User user = new User("carga" + i, channel);
+            // El servidor atiende las líneas en orden: el nombre puede ir antes que el saludo
+            user.send(user.name);
+            connected.add(user);
+            readers[i % readers.length].add(user);
+        }
+        if (!loggedIn.await(30 + users / 100, TimeUnit.SECONDS)) {
+            throw new IOException("solo entraron " + (users - loggedIn.getCount()) + " de " + users + " usuarios");
+        }
+        System.out.printf("%d usuarios conectados en %.1f s%n", users, (System.nanoTime() - started) / 1e9);
+    }
+
+    // Envía a ritmo constante desde usuarios al azar; devuelve los mensajes medidos
+    long run() throws IOException, InterruptedException {
+        long interval = (long) (1e9 / rate);
+        long started = System.nanoTime();
+        long warmupEnd = started + warmupSeconds * 1_000_000_000L;
+        long end = warmupEnd + seconds * 1_000_000_000L;
+        long next = started;
+        long sent = 0;
+        Random random = new Random();
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (now < next) {
+                long wait = next - now;
+                if (wait > 100_000) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+                continue;
+            }
+            if (!measuring && now >= warmupEnd) {
+                measuring = true;
+                measureStarted = now;
+            }
+            long id = nextId.incrementAndGet();
+            if (measuring) {
+                pending.put(id, new AtomicInteger(users - 1));
+                sent++;
+            }
+            User user = connected.get(random.nextInt(connected.size()));
+            user.send("mensaje" + MARK + id + " " + System.nanoTime());
+            // Si el emisor se retrasa no intenta recuperar de golpe
+            next = Math.max(next + interval, now - interval);
+        }
+        return sent;
+    }
+
+    void report(long sent, double elapsedSeconds) {
+        long incomplete = pending.size();
+        long missing = 0;
+        for (AtomicInteger remaining : pending.values()) {
+            missing += remaining.get();
+        }
+        System.out.printf("Enviados: %d (%.1f msg/s), entregas: %d (%.1f/s)%n", sent, sent / elapsedSeconds,
+                delivered.sum(), delivered.sum() / elapsedSeconds);
+        System.out.printf("Sin completar: %d mensajes, %d entregas perdidas%n", incomplete, missing);
+        print("Entrada", login);
+        print("Entrega", delivery);
+        print("Todos", fanout);
+    }
+
+    private static void print(String label, LatencyHistogram histogram) {
+        System.out.printf("%s: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, máx %.2f ms (%d)%n", label,
+                histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6,
+                histogram.percentile(0.999) / 1e6, histogram.max() / 1e6, histogram.count());
+    }
+
+    // Un intento de la ráfaga y lo que lleva leído de su primera línea
+    private static final class Attempt {
+        final long started = System.nanoTime();
+        final StringBuilder line = new StringBuilder();
+    }
+
+    // Ráfaga de conexiones: todas a la vez, sin bloquear, desde un solo Selector. Mide cuánto
+    // tarda el connect (la cola de espera del servidor) y cuánto hasta el saludo (la aceptación
+    // y el reparto); cada intento tiene su propio plazo
+    static void storm(List<ChatClient.ServerInfo> servers, int count, long timeoutMillis) throws IOException {
+        LatencyHistogram connectLatency = new LatencyHistogram();
+        LatencyHistogram greeting = new LatencyHistogram();
+        int refused = 0;
+        int failed = 0;
+        int timedOut = 0;
+        int overloaded = 0;
+        long overflowsBefore = Metrics.listenOverflows();
+        List<SocketChannel> channels = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        try (Selector selector = Selector.open()) {
+            long started = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                ChatClient.ServerInfo server = servers.get(i % servers.size());
+                SocketChannel channel = SocketChannel.open();
+                channels.add(channel);
+                channel.configureBlocking(false);
+                Attempt attempt = new Attempt();
+                try {
+                    if (channel.connect(new InetSocketAddress(server.host, server.port))) {
+                        connectLatency.since(attempt.started);
+                        channel.register(selector, SelectionKey.OP_READ, attempt);
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                    }
+                } catch (ConnectException e) {
+                    refused++;
+                    channel.close();
+                }
+            }
+            long deadlineNanos = timeoutMillis * 1_000_000L;
+            while (!selector.keys().isEmpty()) {
+                selector.select(10);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            connectLatency.since(attempt.started);
+                            key.interestOps(SelectionKey.OP_READ);
+                        } else if (key.isReadable()) {
+                            in.clear();
+                            if (channel.read(in) < 0) {
+                                throw new EOFException();
+                            }
+                            String first = firstLine(attempt.line, in);
+                            // El saludo es la primera línea: "SERVIDOR:..."; en sobrecarga
+                            // llega "SOBRECARGA:..." y se cierra
+                            if (first == null) {
+                                continue;
+                            } else if (first.startsWith("SERVIDOR:")) {
+                                greeting.since(attempt.started);
+                            } else if (first.startsWith("SOBRECARGA:")) {
+                                overloaded++;
+                            } else {
+                                failed++;
+                            }
+                            key.cancel();
+                        }
+                    } catch (ConnectException e) {
+                        refused++;
+                        key.cancel();
+                        channel.close();
+                    } catch (IOException e) {
+                        failed++;
+                        key.cancel();
+                        channel.close();
+                    }
+                }
+                long now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    Attempt attempt = (Attempt) key.attachment();
+                    if (key.isValid() && now - attempt.started > deadlineNanos) {
+                        timedOut++;
+                        key.cancel();
+                    }
+                }
+            }
+            System.out.printf("%d conexiones en %.1f s: %d con saludo, %d en sobrecarga, %d rechazadas, %d cortadas, %d sin respuesta%n",
+                    count, (System.nanoTime() - started) / 1e9, greeting.count(), overloaded, refused, failed, timedOut);
+        } finally {
+            for (SocketChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignorar
+                }
+            }
+        }
+        print("Conexión", connectLatency);
+        print("Saludo", greeting);
+        long overflowsAfter = Metrics.listenOverflows();
+        if (overflowsBefore >= 0 && overflowsAfter >= 0) {
+            // Del equipo entero: solo dice algo si el servidor está en esta máquina
+            System.out.println("Desbordes de backlog (ListenOverflows): " + (overflowsAfter - overflowsBefore));
+        }
+    }
+
+    // Añade lo leído a la línea en curso; la devuelve cuando llega su fin de línea
+    private static String firstLine(StringBuilder line, ByteBuffer in) {
+        for (int i = 0; i < in.position(); i++) {
+            char c = (char) (in.get(i) & 0xff);
+            if (c == '\n') {
+                return line.toString();
+            }
+            line.append(c);
+        }
+        return null;
+    }
+
+    void close() {
+        for (User user : connected) {
+            try {
+                user.channel.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<ChatClient.ServerInfo> servers = new ArrayList<>();
+        int users = 100;
+        double rate = 100;
+        long seconds = 10;
+        long warmup = 2;
+        long drainMillis = 2000;
+        int readerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int storm = 0;
+        long stormTimeout = 3000;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                String[] parts = arg.split(":");
+                servers.add(new ChatClient.ServerInfo(parts[0], Integer.parseInt(parts[1])));
+                continue;
+            }
+            String[] option = arg.substring(2).split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "usuarios":
+                    users = Integer.parseInt(value);
+                    break;
+                case "tasa":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "segundos":
+                    seconds = Long.parseLong(value);
+                    break;
+                case "calentamiento":
+                    warmup = Long.parseLong(value);
+                    break;
+                case "espera-ms":
+                    drainMillis = Long.parseLong(value);
+                    break;
+                case "lectores":
+                    readerThreads = Integer.parseInt(value);
+                    break;
+                case "tormenta":
+                    storm = Integer.parseInt(value);
+                    break;
+                case "plazo-ms":
+                    stormTimeout = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + arg);
+            }
+        }
+        if (servers.isEmpty() || users < 2 || rate <= 0) {
+            System.out.println("Uso: java chat.LoadGenerator <host:puerto>... [--usuarios=100] [--tasa=100]"
+                    + " [--segundos=10] [--calentamiento=2] [--espera-ms=2000] [--lectores=N]");
+            System.out.println("  tasa: mensajes por segundo en total; se necesitan al menos dos usuarios");
+            System.out.println("       java chat.LoadGenerator <host:puerto>... --tormenta=N [--plazo-ms=3000]");
+            System.out.println("  tormenta: abre N conexiones a la vez y mide conexión y saludo, sin enviar nada");
+            return;
+        }
+        if (storm > 0) {
+            storm(servers, storm, stormTimeout);
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(servers, users, rate, seconds, warmup, readerThreads);
+        try {
+            generator.connect();
+            long sent = generator.run();
+            // El emisor puede pasarse del plazo si se retrasa: los ritmos salen del tiempo medido
+            double elapsed = (System.nanoTime() - generator.measureStarted) / 1e9;
+            // Lo que siga pendiente tras la espera se da por perdido
+            long deadline = System.currentTimeMillis() + drainMillis;
+            while (!generator.pending.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            generator.report(sent, elapsed);
+        } finally {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package chat;
+
+import java.util.*;
+
+// Miembros conocidos del clúster, por dirección de clientes. Cada servidor se anuncia con
+// una encarnación (su hora de arranque): una entrada más reciente sustituye a la anterior,
+// así que un servidor que se fue y vuelve a arrancar revive, pero un anuncio viejo que
+// siga circulando no resucita a uno que se marchó. Las bajas (anunciadas, o de uno que
+// lleva demasiado sin responder) se guardan y se propagan durante TOMBSTONE_MILLIS; luego
+// se olvidan
+public class Membership {
+    static final long TOMBSTONE_MILLIS = 10 * 60_000;
+
+    static final class Member {
+        final String name;
+        final String address;
+        final long incarnation;
+        final boolean alive;
+        // Hora local a la que se supo de la baja, para olvidarla; no se difunde
+        final long removedAt;
+
+        Member(String name, String address, long incarnation, boolean alive) {
+            this(name, address, incarnation, alive, 0);
+        }
+
+        Member(String name, String address, long incarnation, boolean alive, long removedAt) {
+            this.name = name;
+            this.address = address;
+            this.incarnation = incarnation;
+            this.alive = alive;
+            this.removedAt = removedAt;
+        }
+    }
+
+    private Member self;
+    private final Map<String, Member> members = new HashMap<>();
+
+    public Membership(String name, String address, long incarnation) {
+        this.self = new Member(name, address, incarnation, true);
+    }
+
+    public String selfAddress() {
+        return self.address;
+    }
+
+    // Semilla de la línea de órdenes: aún no se sabe su nombre ni su encarnación
+    public synchronized boolean addSeed(String address) {
+        if (address.equals(self.address) || members.containsKey(address)) {
+            return false;
+        }
+        members.put(address, new Member("?", address, 0, true));
+        return true;
+    }
+
+    // Mezcla una lista recibida; devuelve los miembros que cambiaron de estado
+    public synchronized List<Member> merge(String list) {
+        return merge(list, System.currentTimeMillis());
+    }
+
+    synchronized List<Member> merge(String list, long now) {
+        List<Member> changed = new ArrayList<>();
+        for (Member incoming : parse(list)) {
+            if (incoming.address.equals(self.address)) {
+                // Otro dio de baja a este servidor sin que se fuera: se desmiente con una
+                // encarnación mayor, que revive la entrada en todos
+                if (!incoming.alive && incoming.incarnation >= self.incarnation) {
+                    self = new Member(self.name, self.address, incoming.incarnation + 1, true);
+                }
+                continue;
+            }
+            Member known = members.get(incoming.address);
+            boolean newer = known == null || incoming.incarnation > known.incarnation
+                    || (incoming.incarnation == known.incarnation && known.alive && !incoming.alive);
+            if (!newer) {
+                continue;
+            }
+            if (!incoming.alive) {
+                incoming = new Member(incoming.name, incoming.address, incoming.incarnation, false, now);
+            }
+            members.put(incoming.address, incoming);
+            if (known == null ? incoming.alive : known.alive != incoming.alive) {
+                changed.add(incoming);
+            }
+        }
+        return changed;
+    }
+
+    // Baja de un miembro que no responde; false si ya no estaba vivo
+    public synchronized boolean remove(String address, long now) {
+        Member known = members.get(address);
+        if (known == null || !known.alive) {
+            return false;
+        }
+        members.put(address, new Member(known.name, address, known.incarnation, false, now));
+        return true;
+    }
+
+    // Olvida las bajas que ya tuvieron tiempo de llegar a todos
+    public synchronized int expire(long now) {
+        int expired = 0;
+        for (Iterator<Member> it = members.values().iterator(); it.hasNext(); ) {
+            Member member = it.next();
+            if (!member.alive && now - member.removedAt >= TOMBSTONE_MILLIS) {
+                it.remove();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized List<Member> alive() {
+        List<Member> result = new ArrayList<>();
+        for (Member member : members.values()) {
+            if (member.alive) {
+                result.add(member);
+            }
+        }
+        return result;
+    }
+
+    // nombre=host:puerto@encarnación, con '-' al final si se dio de baja
+    public synchronized String encode() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, self);
+        for (Member member : members.values()) {
+            // Las semillas sin confirmar no se difunden: quizá la dirección ni exista
+            if (member.incarnation > 0) {
+                sb.append(',');
+                append(sb, member);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Baja propia al apagarse: se mezcla en los demás como cualquier otra lista
+    public synchronized String encodeLeave() {
+        return self.name + "=" + self.address + "@" + self.incarnation + "-";
+    }
+
+    private static void append(StringBuilder sb, Member member) {
+        sb.append(member.name).append('=').append(member.address).append('@').append(member.incarnation);
+        if (!member.alive) {
+            sb.append('-');
+        }
+    }
+
+    static List<Member> parse(String list) {
+        List<Member> result = new ArrayList<>();
+        if (list.isEmpty()) {
+            return result;
+        }
+        for (String entry : list.split(",")) {
+            int eq = entry.indexOf('=');
+            int at = entry.lastIndexOf('@');
+            if (eq <= 0 || at < eq) {
+                continue;
+            }
+            boolean alive = !entry.endsWith("-");
+            String address = entry.substring(eq + 1, at);
+            if (!isAddress(address)) {
+                continue;
+            }
+            try {
+                long incarnation = Long.parseLong(entry.substring(at + 1, alive ? entry.length() : entry.length() - 1));
+                result.add(new Member(entry.substring(0, eq), address, incarnation, alive));
+            } catch (NumberFormatException e) {
+                // Entrada inválida: se ignora
+            }
+        }
+        return result;
+    }
+
+    // host:puerto con un puerto válido: lo que PeerLink sabe abrir
+    static boolean isAddress(String address) {
+        String[] parts = address.split(":", -1);
+        if (parts.length != 2 || parts[0].isEmpty()) {
+            return false;
+        }
+        try {
+            int port = Integer.parseInt(parts[1]);
+            return port > 0 && port <= 65535;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package chat;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+// Registro en disco de los mensajes aceptados, en segmentos de solo-añadir.
+// Un único hilo escribe por lotes y hace un fsync por lote (group commit);
+// al arrancar se recorren los segmentos mapeados en memoria.
+//
+// Registro: [longitud int][crc32c int][origen: short + bytes][seq long][aceptado long][texto: int + bytes]
+// [sala: short + bytes, vacía = la general][marca long]. Los registros antiguos acaban en el
+// texto (sala general) o en la sala, sin marca: se toma la hora de aceptación
+public class MessageLog {
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    static final int QUEUE_CAPACITY = 65536;
+    static final int MAX_BATCH = 4096;
+    static final String ORIGIN_FILE = "origen";
+    // Pausa antes de reintentar un lote que no se pudo escribir
+    static final long RETRY_MILLIS = 1000;
+
+    interface RecoveryListener {
+        void onRecovered(ChatMessage message, long acceptedAt);
+
+        // Mensaje que ya no cabría en el historial de su sala: solo interesa su secuencia
+        default void onSkipped(String origin, long seq) {
+        }
+
+        // Faltan segmentos antiguos: seq es la secuencia más baja que queda del origen y lo
+        // anterior ya no se puede recuperar
+        default void onTruncated(String origin, long seq) {
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong appended = new AtomicLong();
+    private volatile long durable;
+    private volatile long batches;
+    private volatile long failures;
+    private volatile boolean closed;
+    private Thread writer;
+    private FileChannel segment;
+    private long segmentNumber;
+    // Tamaño del segmento antes del lote que falló: se recorta ahí antes de reintentarlo
+    private long retryFrom = -1;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32C crc = new CRC32C();
+    // Últimos origen y sala vistos en la recuperación
+    private final Interned lastOrigin = new Interned();
+    private final Interned lastRoom = new Interned();
+
+    // Sin mensaje es una marca: solo lleva lo que se ejecuta cuando lo anterior está en disco
+    private static final class Record {
+        final ChatMessage message;
+        final long acceptedAt;
+        final Runnable then;
+
+        Record(ChatMessage message, long acceptedAt, Runnable then) {
+            this.message = message;
+            this.acceptedAt = acceptedAt;
+            this.then = then;
+        }
+    }
+
+    private static final Record STOP = new Record(null, 0, null);
+
+    // Casi siempre es el mismo origen (o sala) que el registro anterior: se evita crear el String
+    private static final class Interned {
+        private byte[] bytes = new byte[0];
+        private String value = "";
+
+        String read(ByteBuffer payload, int length) {
+            boolean same = length == bytes.length;
+            for (int i = 0; same && i < length; i++) {
+                same = payload.get(payload.position() + i) == bytes[i];
+            }
+            if (!same) {
+                bytes = new byte[length];
+                payload.get(payload.position(), bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            payload.position(payload.position() + length);
+            return value;
+        }
+    }
+
+    // Posiciones (segmento, desplazamiento) de los últimos mensajes de una sala
+    private static final class Tail {
+        final long[] slots;
+        long count;
+
+        Tail(int size) {
+            slots = new long[size];
+        }
+
+        // Devuelve la posición que sale del anillo, o -1
+        long push(long location) {
+            int slot = (int) (count % slots.length);
+            long evicted = count >= slots.length ? slots[slot] : -1;
+            slots[slot] = location;
+            count++;
+            return evicted;
+        }
+    }
+
+    // maxSegments = 0 conserva todos los segmentos
+    public MessageLog(Path dir, long segmentBytes, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(dir);
+    }
+
+    // El origen se conserva entre reinicios para seguir su secuencia
+    public String loadOrCreateOrigin(String candidate) throws IOException {
+        Path file = dir.resolve(ORIGIN_FILE);
+        if (Files.exists(file)) {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        }
+        Files.write(file, candidate.getBytes(StandardCharsets.UTF_8));
+        return candidate;
+    }
+
+    // Recorre todos los segmentos y deja el último listo para seguir añadiendo. Solo se
+    // decodifican los últimos keepPerRoom mensajes de cada sala; de los anteriores basta el
+    // origen y la secuencia, que se leen sin copiar el texto
+    public long recover(RecoveryListener listener, int keepPerRoom) throws IOException {
+        List<Path> segments = listSegments();
+        List<MappedByteBuffer> maps = new ArrayList<>();
+        Map<String, Tail> tails = new HashMap<>();
+        Map<String, Long> oldest = new HashMap<>();
+        long count = 0;
+        CRC32C check = new CRC32C();
+
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                maps.add(map);
+
+                int valid = 0;
+                while (valid >= 0 && map.remaining() >= 8) {
+                    valid = nextRecord(map, check);
+                    if (valid < 0) {
+                        break;
+                    }
+                    long location = ((long) i << 32) | valid;
+                    ByteBuffer payload = payloadAt(maps, location);
+                    String origin = lastOrigin.read(payload, payload.getShort());
+                    oldest.merge(origin, payload.getLong(), Math::min);
+                    int textLength = payload.position(payload.position() + 8).getInt();
+                    payload.position(payload.position() + textLength);
+                    Tail tail = tails.computeIfAbsent(room(payload), k -> new Tail(Math.max(keepPerRoom, 1)));
+                    long evicted = tail.push(location);
+                    if (evicted >= 0) {
+                        skip(maps, evicted, listener);
+                    }
+                    count++;
+                }
+                long end = valid < 0 ? -valid - 1 : map.position();
+                if (end < size) {
+                    System.err.println("Registro dañado en " + path.getFileName() + " a partir del byte " + end);
+                    if (i == segments.size() - 1) {
+                        // Cola de una escritura interrumpida: se descarta
+                        channel.truncate(end);
+                    }
+                }
+            }
+        }
+
+        // Los segmentos se numeran desde 0: si el primero no es el 0, se borraron los anteriores
+        if (!segments.isEmpty() && numberOf(segments.get(0)) > 0) {
+            oldest.forEach(listener::onTruncated);
+        }
+
+        // Lo que queda en los anillos, en el orden del registro
+        long[] kept = tails.values().stream()
+                .flatMapToLong(tail -> Arrays.stream(tail.slots, 0, (int) Math.min(tail.count, tail.slots.length)))
+                .sorted().toArray();
+        for (long location : kept) {
+            ByteBuffer payload = payloadAt(maps, location);
+            byte[] origin = new byte[payload.getShort()];
+            payload.get(origin);
+            long seq = payload.getLong();
+            long acceptedAt = payload.getLong();
+            byte[] text = new byte[payload.getInt()];
+            payload.get(text);
+            String room = room(payload);
+            long hlc = payload.remaining() >= 8 ? payload.getLong() : HybridClock.fromMillis(acceptedAt);
+            listener.onRecovered(new ChatMessage(new String(origin, StandardCharsets.UTF_8), seq, room,
+                    new String(text, StandardCharsets.UTF_8), hlc), acceptedAt);
+        }
+
+        segmentNumber = segments.isEmpty() ? 0 : numberOf(segments.get(segments.size() - 1));
+        segment = openSegment(segmentNumber);
+        return count;
+    }
+
+    // Sala de un registro con la posición tras el texto; avanza hasta la marca
+    private String room(ByteBuffer payload) {
+        if (!payload.hasRemaining()) {
+            return ChatMessage.GENERAL;
+        }
+        String room = lastRoom.read(payload, payload.getShort());
+        return room.isEmpty() ? ChatMessage.GENERAL : room;
+    }
+
+    // Valida el registro actual y avanza; devuelve su desplazamiento, o -(fin válido)-1
+    private static int nextRecord(MappedByteBuffer map, CRC32C check) {
+        int start = map.position();
+        int length = map.getInt();
+        int expected = map.getInt();
+        if (length <= 0 || length > map.remaining()) {
+            return -start - 1;
+        }
+        ByteBuffer payload = map.slice();
+        payload.limit(length);
+        check.reset();
+        check.update(payload);
+        if ((int) check.getValue() != expected) {
+            return -start - 1;
+        }
+        map.position(start + 8 + length);
+        return start;
+    }
+
+    private void skip(List<MappedByteBuffer> maps, long location, RecoveryListener listener) {
+        ByteBuffer payload = payloadAt(maps, location);
+        String origin = lastOrigin.read(payload, payload.getShort());
+        listener.onSkipped(origin, payload.getLong());
+    }
+
+    private static ByteBuffer payloadAt(List<MappedByteBuffer> maps, long location) {
+        ByteBuffer payload = maps.get((int) (location >>> 32)).duplicate();
+        int offset = (int) location;
+        payload.limit(offset + 8 + payload.getInt(offset));
+        payload.position(offset + 8);
+        return payload;
+    }
+
+    // Hilo de plataforma: el fsync bloquea y fijaría un hilo virtual
+    public void start(String name) {
+        writer = new Thread(this::writeLoop, name);
+        writer.start();
+    }
+
+    // Nunca bloquea: se llama desde los reactores, y un disco lento pararía a todos sus
+    // clientes. false si la cola está llena o el registro cerrado; quien añade decide si
+    // rechaza el mensaje o frena a quien lo envió
+    public boolean append(ChatMessage message, long acceptedAt) {
+        return enqueue(new Record(message, acceptedAt, null));
+    }
+
+    // Como append, y then se ejecuta en el hilo del registro en cuanto el mensaje está en disco
+    public boolean append(ChatMessage message, long acceptedAt, Runnable then) {
+        return enqueue(new Record(message, acceptedAt, then));
+    }
+
+    // then se ejecuta en el hilo del registro cuando todo lo añadido antes esté en disco: es
+    // la espera del group commit, sin bloquear a quien añade. false como en append
+    public boolean afterDurable(Runnable then) {
+        return enqueue(new Record(null, 0, then));
+    }
+
+    private boolean enqueue(Record record) {
+        if (closed) {
+            return false;
+        }
+        if (record.message != null) {
+            appended.incrementAndGet();
+        }
+        if (queue.offer(record)) {
+            return true;
+        }
+        if (record.message != null) {
+            appended.decrementAndGet();
+        }
+        return false;
+    }
+
+    // Escribe lo que queda en la cola y para el hilo; lo que se añada después se pierde
+    public void close(long timeoutMillis) throws InterruptedException {
+        closed = true;
+        if (writer != null && queue.offer(STOP, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            writer.join(timeoutMillis);
+        }
+    }
+
+    public long pending() {
+        return appended.get() - durable;
+    }
+
+    public long batches() {
+        return batches;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    // Un lote que no se pudo escribir no se descarta: ya se aceptó y quien lo envió espera su
+    // acuse. Se reintenta hasta que el disco responda; mientras, la cola se llena y append
+    // devuelve false, así que el servidor rechaza mensajes nuevos en lugar de perderlos
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    stopping = batch.remove(STOP);
+                }
+                int written = write(batch);
+                durable += written;
+                batches++;
+                for (Record record : batch) {
+                    if (record.then != null) {
+                        run(record.then);
+                    }
+                }
+                batch.clear();
+
+                if (segment.size() >= segmentBytes) {
+                    roll();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                failures++;
+                System.err.println("Error escribiendo el registro, se reintenta en " + RETRY_MILLIS + " ms ("
+                        + pending() + " pendientes): " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            // Ya está todo en disco
+        }
+    }
+
+    private static void run(Runnable then) {
+        try {
+            then.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error tras escribir el registro: " + e);
+        }
+    }
+
+    // Devuelve los mensajes escritos; las marcas no ocupan nada
+    private int write(List<Record> batch) throws IOException {
+        if (!segment.isOpen()) {
+            segment = openSegment(segmentNumber);
+        }
+        if (retryFrom >= 0) {
+            // Lo que llegó a escribirse del intento anterior quedaría repetido o a medias
+            segment.truncate(retryFrom);
+        }
+        retryFrom = segment.size();
+        buffer.clear();
+        int written = 0;
+        for (Record record : batch) {
+            if (record.message != null) {
+                encode(record);
+                written++;
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+        retryFrom = -1;
+        return written;
+    }
+
+    private void encode(Record record) {
+        byte[] origin = record.message.origin.getBytes(StandardCharsets.UTF_8);
+        byte[] text = record.message.text.getBytes(StandardCharsets.UTF_8);
+        byte[] room = record.message.room.equals(ChatMessage.GENERAL)
+                ? new byte[0] : record.message.room.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + origin.length + 8 + 8 + 4 + text.length + 2 + room.length + 8;
+        if (buffer.remaining() < length + 8) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + length + 8));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        int start = buffer.position();
+        buffer.position(start + 8);
+        buffer.putShort((short) origin.length).put(origin);
+        buffer.putLong(record.message.seq);
+        buffer.putLong(record.acceptedAt);
+        buffer.putInt(text.length).put(text);
+        buffer.putShort((short) room.length).put(room);
+        buffer.putLong(record.message.hlc);
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + 8).limit(start + 8 + length);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    // El segmento nuevo se abre antes de soltar el actual: si falla se sigue en el mismo
+    private void roll() throws IOException {
+        FileChannel next = openSegment(segmentNumber + 1);
+        FileChannel previous = segment;
+        segment = next;
+        segmentNumber++;
+        previous.close();
+
+        if (maxSegments > 0) {
+            List<Path> segments = listSegments();
+            for (int i = 0; i < segments.size() - maxSegments; i++) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(dir.resolve(String.format("segmento-%08d.log", number)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segmento-*.log")) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort(Comparator.comparingLong(MessageLog::numberOf));
+        return segments;
+    }
+
+    private static long numberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(9, name.length() - 4));
+    }
+}
@@ -0,0 +1,289 @@
+package chat;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.management.*;
+
+// Contadores y latencias de los caminos calientes del servidor. Registrar cuesta un
+// LongAdder o una cubeta atómica; el coste de leer lo paga quien consulta, por el puerto
+// local de métricas (texto, o JSON si se pide) o por JMX. JMX lee una muestra tomada cada
+// SAMPLE_MILLIS: una consola que sondea cada atributo no recorre los histogramas en cada lectura
+public class Metrics implements DynamicMBean {
+    static final long SAMPLE_MILLIS = 1000;
+
+    final LongAdder accepted = new LongAdder();
+    final LongAdder peersAccepted = new LongAdder();
+    final LongAdder linesRead = new LongAdder();
+    final LongAdder framesRead = new LongAdder();
+    final LongAdder messages = new LongAdder();
+    final LongAdder deliveries = new LongAdder();
+    final LongAdder replicated = new LongAdder();
+    final LongAdder syncRounds = new LongAdder();
+    final LongAdder syncRepaired = new LongAdder();
+    final LongAdder acceptErrors = new LongAdder();
+    // Tramas reenviadas tras un corte por no tener acuse, y mensajes sin quórum en plazo
+    final LongAdder retransmitted = new LongAdder();
+    final LongAdder quorumTimeouts = new LongAdder();
+    // Líneas de clientes por encima de su límite o del nodo, y lo rechazado en sobrecarga
+    // (conexiones nuevas y líneas)
+    final LongAdder throttled = new LongAdder();
+    final LongAdder shed = new LongAdder();
+    // Mensajes que no cupieron en la cola del registro: el disco no daba abasto
+    final LongAdder logFull = new LongAdder();
+    // Mensajes de otras réplicas para salas nuevas por encima del límite de salas
+    final LongAdder roomsRefused = new LongAdder();
+    // Bloques comprimidos (réplicas e historial): lo que ocupaban y lo que se envió
+    final LongAdder uncompressedBytes = new LongAdder();
+    final LongAdder compressedBytes = new LongAdder();
+    // Tiempo en enviar un mensaje a todos los suscriptores de su sala (solo encolar)
+    final LatencyHistogram broadcast = new LatencyHistogram();
+    final LatencyHistogram replicate = new LatencyHistogram();
+    // Historial en memoria más registro en disco (que solo encola)
+    final LatencyHistogram historyAppend = new LatencyHistogram();
+    // Desde que se decide replicar un mensaje hasta que sale por el enlace
+    final LatencyHistogram replicationLag = new LatencyHistogram();
+    // Desde que accept devuelve la conexión hasta que se entrega a su hilo o reactor
+    final LatencyHistogram acceptLatency = new LatencyHistogram();
+    // Hasta que la réplica confirma el lote que lo llevaba
+    final LatencyHistogram replicationAck = new LatencyHistogram();
+
+    private final String serverName;
+    private final long startedAt = System.currentTimeMillis();
+    // Valores que se calculan al consultar: clientes, salas, colas, hilos...
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    // Mensajes por segundo entre las dos últimas muestras; solo lo actualiza sample()
+    private long rateSampledAt = System.nanoTime();
+    private long rateSampledCount;
+    private volatile double rate;
+    // Última muestra, la que ve JMX; null hasta la primera
+    private volatile Map<String, Number> sampled;
+
+    public Metrics(String serverName) {
+        this.serverName = serverName;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        gauge("hilos", threads::getThreadCount);
+        gauge("hilos_max", threads::getPeakThreadCount);
+    }
+
+    public synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public void start(ScheduledExecutorService timers) {
+        timers.scheduleAtFixedRate(this::sample, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Actualiza la tasa de mensajes y guarda una instantánea para JMX
+    synchronized void sample() {
+        long now = System.nanoTime();
+        long count = messages.sum();
+        if (now > rateSampledAt) {
+            rate = (count - rateSampledCount) * 1e9 / (now - rateSampledAt);
+        }
+        rateSampledAt = now;
+        rateSampledCount = count;
+        sampled = Collections.unmodifiableMap(snapshot());
+    }
+
+    // La última muestra; sin start() se toma al pedirla por primera vez
+    Map<String, Number> sampled() {
+        Map<String, Number> values = sampled;
+        if (values == null) {
+            sample();
+            values = sampled;
+        }
+        return values;
+    }
+
+    // Nombre -> valor, en un orden estable; las latencias en microsegundos
+    public synchronized Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("activo_s", (System.currentTimeMillis() - startedAt) / 1000);
+        values.put("conexiones", accepted.sum());
+        values.put("conexiones_replicas", peersAccepted.sum());
+        values.put("errores_aceptacion", acceptErrors.sum());
+        values.put("lineas_leidas", linesRead.sum());
+        values.put("tramas_leidas", framesRead.sum());
+        values.put("mensajes", messages.sum());
+        values.put("mensajes_por_s", Math.round(rate * 10) / 10.0);
+        values.put("entregas", deliveries.sum());
+        values.put("replicados", replicated.sum());
+        values.put("sincronizaciones", syncRounds.sum());
+        values.put("sincronizados", syncRepaired.sum());
+        values.put("retransmitidos", retransmitted.sum());
+        values.put("sin_quorum", quorumTimeouts.sum());
+        values.put("limitadas", throttled.sum());
+        values.put("rechazadas_sobrecarga", shed.sum());
+        values.put("rechazados_registro", logFull.sum());
+        values.put("salas_rechazadas", roomsRefused.sum());
+        values.put("bytes_sin_comprimir", uncompressedBytes.sum());
+        values.put("bytes_comprimidos", compressedBytes.sum());
+        histogram(values, "aceptacion", acceptLatency);
+        histogram(values, "difusion", broadcast);
+        histogram(values, "replicacion", replicate);
+        histogram(values, "historial", historyAppend);
+        histogram(values, "retraso_replicas", replicationLag);
+        histogram(values, "confirmacion_replicas", replicationAck);
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    private static void histogram(Map<String, Number> values, String name, LatencyHistogram histogram) {
+        values.put(name + "_n", histogram.count());
+        values.put(name + "_media_us", histogram.mean() / 1000);
+        values.put(name + "_p50_us", histogram.percentile(0.5) / 1000);
+        values.put(name + "_p99_us", histogram.percentile(0.99) / 1000);
+        values.put(name + "_p999_us", histogram.percentile(0.999) / 1000);
+        values.put(name + "_max_us", histogram.max() / 1000);
+    }
+
+    public String text() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(format(entry.getValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String json() {
+        StringBuilder sb = new StringBuilder("{\"servidor\":\"").append(serverName.replace("\"", "\\\"")).append('"');
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            sb.append(",\"").append(entry.getKey()).append("\":").append(format(entry.getValue()));
+        }
+        return sb.append("}\n").toString();
+    }
+
+    // ListenOverflows de /proc/net/netstat (Linux); -1 si no se puede leer
+    static long listenOverflows() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/net/netstat", StandardCharsets.US_ASCII))) {
+            String header;
+            while ((header = reader.readLine()) != null) {
+                String values = reader.readLine();
+                if (values == null || !header.startsWith("TcpExt:")) {
+                    continue;
+                }
+                String[] names = header.split(" ");
+                String[] numbers = values.split(" ");
+                for (int i = 1; i < names.length && i < numbers.length; i++) {
+                    if (names[i].equals("ListenOverflows")) {
+                        return Long.parseLong(numbers[i]);
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Sin el dato
+        }
+        return -1;
+    }
+
+    private static String format(Number value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.1f", value.doubleValue());
+        }
+        return value.toString();
+    }
+
+    public void registerJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("ChatServer:type=Metricas,servidor=" + ObjectName.quote(serverName)));
+        } catch (JMException e) {
+            System.err.println("[" + serverName + "] No se pudieron publicar las métricas por JMX: " + e.getMessage());
+        }
+    }
+
+    // Puerto solo en loopback: una línea "json" o un GET cuya ruta contenga "json"
+    // devuelve JSON; cualquier otra cosa, texto
+    public void serve(int port, ThreadFactory threads) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println("[" + serverName + "] Métricas en 127.0.0.1:" + port);
+        threads.newThread(() -> {
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    socket.setSoTimeout(2000);
+                    answer(socket);
+                } catch (IOException e) {
+                    // Consulta fallida: se atiende la siguiente
+                }
+            }
+        }).start();
+    }
+
+    private void answer(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String request = in.readLine();
+        if (request == null) {
+            return;
+        }
+        boolean json = request.contains("json");
+        String body = json ? json() : text();
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        if (request.startsWith("GET ")) {
+            String header;
+            while ((header = in.readLine()) != null && !header.isEmpty()) {
+                // Las cabeceras no se usan
+            }
+            out.write("HTTP/1.0 200 OK\r\nContent-Type: " + (json ? "application/json" : "text/plain")
+                    + "; charset=utf-8\r\nContent-Length: " + body.getBytes(StandardCharsets.UTF_8).length
+                    + "\r\n\r\n");
+        }
+        out.write(body);
+        out.flush();
+    }
+
+    // DynamicMBean: un atributo de solo lectura por cada valor de la última muestra
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = sampled().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = sampled();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            if (values.containsKey(name)) {
+                list.add(new Attribute(name, values.get(name)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Las métricas son de solo lectura: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> entry : sampled().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Métricas de " + serverName,
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,414 @@
+package chat;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+public class NioReactor implements Runnable {
+    static final int MAX_LINE = 1 << 20;
+    // Búfer de escritura compartido por los canales del reactor: lo pendiente de un
+    // tick se junta en una sola escritura
+    static final int WRITE_BUFFER = 64 * 1024;
+
+    interface Listener {
+        // Al registrarse el canal, antes de leer nada
+        void onOpen();
+        void onLine(String line);
+        void onClose();
+
+        // Cuerpo de una trama [longitud int][cuerpo], tras useFrames(); el array se reutiliza
+        default void onFrame(byte[] data, int offset, int length) {
+        }
+
+        // Cola propia del oyente, líneas ya codificadas con su salto: solo se consulta
+        // cuando el socket admite escritura
+        default byte[] pollOutbound() {
+            return null;
+        }
+
+        default boolean hasOutbound() {
+            return false;
+        }
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // El del protocolo, no el del sistema: dos nodos con distinto por defecto no se entenderían
+    private final Charset charset = StandardCharsets.UTF_8;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+    private volatile Thread thread;
+
+    public NioReactor() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    public void register(SocketChannel socket, Function<Channel, Listener> factory) {
+        execute(() -> {
+            Channel channel = new Channel(socket);
+            try {
+                socket.configureBlocking(false);
+                channel.key = socket.register(selector, SelectionKey.OP_READ, channel);
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Ignorar
+                }
+                return;
+            }
+            try {
+                channel.listener = factory.apply(channel);
+                channel.listener.onOpen();
+            } catch (RuntimeException e) {
+                channel.fail(e);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (true) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Channel channel = (Channel) key.attachment();
+                    // Un fallo del oyente cierra su canal, no el reactor
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            channel.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            channel.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        channel.fail(e);
+                    }
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Error en tarea del reactor: " + e);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error en reactor: " + e.getMessage());
+            }
+        }
+    }
+
+    public class Channel {
+        private final SocketChannel socket;
+        private SelectionKey key;
+        private Listener listener;
+        private boolean closed;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private byte[] line = new byte[256];
+        private int lineLength;
+        // A partir del saludo se leen tramas con longitud en lugar de líneas
+        private boolean frames;
+        // Lectura en pausa: lo ya leído espera en readBuffer hasta resume()
+        private boolean paused;
+
+        private final Queue<byte[]> outbound = new ConcurrentLinkedQueue<>();
+        // Línea que no cupo en el búfer de este tick y bytes que el socket no aceptó
+        private byte[] pendingLine;
+        private ByteBuffer leftover;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closeAfterFlush;
+
+        Channel(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        // Seguro desde cualquier hilo
+        public void send(String message) {
+            if (closeAfterFlush) {
+                return;
+            }
+            outbound.add((message + "\n").getBytes(charset));
+            scheduleFlush();
+        }
+
+        // Bytes ya codificados, p. ej. una trama; seguro desde cualquier hilo
+        public void send(byte[] data) {
+            if (closeAfterFlush) {
+                return;
+            }
+            outbound.add(data);
+            scheduleFlush();
+        }
+
+        // Solo desde el hilo del reactor (p. ej. en onOpen)
+        public void useFrames() {
+            frames = true;
+        }
+
+        // Deja de leer del socket y de entregar líneas; solo desde el hilo del reactor (en onLine)
+        public void pause() {
+            paused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        // Seguro desde cualquier hilo: en el reactor ejecuta first y, si no vuelve a pausar,
+        // entrega lo que quedó en el búfer y sigue leyendo
+        public void resume(Runnable first) {
+            executeHere(() -> {
+                if (closed) {
+                    return;
+                }
+                paused = false;
+                first.run();
+                if (!paused && !closed) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    readBuffer.flip();
+                    consume();
+                }
+            });
+        }
+
+        // Seguro desde cualquier hilo: task se ejecuta en el hilo del reactor si el canal
+        // sigue abierto
+        public void runInReactor(Runnable task) {
+            executeHere(() -> {
+                if (!closed) {
+                    task.run();
+                }
+            });
+        }
+
+        // El oyente tiene líneas nuevas en su cola
+        public void outboundReady() {
+            scheduleFlush();
+        }
+
+        // Cierra después de enviar lo pendiente
+        public void close() {
+            closeAfterFlush = true;
+            scheduleFlush();
+        }
+
+        // Cierra sin esperar a vaciar las colas
+        public void abort() {
+            closeAfterFlush = true;
+            execute(this::closeNow);
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                executeHere(this::flush);
+            }
+        }
+
+        // Tarea de este canal: si falla, se cierra el canal
+        private void executeHere(Runnable task) {
+            execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            });
+        }
+
+        private void fail(RuntimeException e) {
+            System.err.println("Error en canal " + socket.socket().getRemoteSocketAddress() + ": " + e);
+            closeNow();
+        }
+
+        private void read() {
+            int n;
+            try {
+                n = socket.read(readBuffer);
+            } catch (IOException e) {
+                closeNow();
+                return;
+            }
+            if (n < 0) {
+                closeNow();
+                return;
+            }
+
+            readBuffer.flip();
+            consume();
+        }
+
+        // Entrega lo leído; si se pausa a mitad, el resto se queda al principio del búfer
+        private void consume() {
+            while (readBuffer.hasRemaining() && !closed && !paused) {
+                if (frames) {
+                    readFrames();
+                    break;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    deliverLine();
+                } else if (lineLength == MAX_LINE) {
+                    closeNow();
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE));
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            readBuffer.compact();
+        }
+
+        // Acumula en el mismo array que las líneas y entrega cada trama completa
+        private void readFrames() {
+            int n = readBuffer.remaining();
+            if (lineLength + n > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + n));
+            }
+            readBuffer.get(line, lineLength, n);
+            lineLength += n;
+
+            int pos = 0;
+            while (!closed && lineLength - pos >= 4) {
+                int length = ((line[pos] & 0xff) << 24) | ((line[pos + 1] & 0xff) << 16)
+                        | ((line[pos + 2] & 0xff) << 8) | (line[pos + 3] & 0xff);
+                if (length <= 0 || length > MAX_LINE) {
+                    closeNow();
+                    return;
+                }
+                if (lineLength - pos - 4 < length) {
+                    break;
+                }
+                listener.onFrame(line, pos + 4, length);
+                pos += 4 + length;
+            }
+            System.arraycopy(line, pos, line, 0, lineLength - pos);
+            lineLength -= pos;
+        }
+
+        private void deliverLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            String text = new String(line, 0, length, charset);
+            lineLength = 0;
+
+            if (!closeAfterFlush) {
+                listener.onLine(text);
+            }
+        }
+
+        private void flush() {
+            if (closed) {
+                return;
+            }
+            try {
+                if (leftover != null) {
+                    socket.write(leftover);
+                    if (leftover.hasRemaining()) {
+                        return;
+                    }
+                    leftover = null;
+                }
+
+                while (true) {
+                    writeBuffer.clear();
+                    byte[] large = fill();
+                    ByteBuffer buffer = large != null ? ByteBuffer.wrap(large) : writeBuffer.flip();
+                    if (!buffer.hasRemaining()) {
+                        break;
+                    }
+                    socket.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        // Ventana TCP llena: el resto se guarda y se espera OP_WRITE
+                        leftover = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                flushScheduled.set(false);
+
+                if (!outbound.isEmpty() || listener.hasOutbound()) {
+                    scheduleFlush();
+                } else if (closeAfterFlush) {
+                    closeNow();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                closeNow();
+            }
+        }
+
+        // Llena el búfer compartido con las líneas pendientes, primero las propias del
+        // canal y después las del oyente. Una línea mayor que el búfer se devuelve aparte
+        private byte[] fill() {
+            while (true) {
+                byte[] next = pendingLine != null ? pendingLine : nextLine();
+                pendingLine = null;
+                if (next == null) {
+                    return null;
+                }
+                if (next.length <= writeBuffer.remaining()) {
+                    writeBuffer.put(next);
+                } else if (writeBuffer.position() == 0) {
+                    return next;
+                } else {
+                    pendingLine = next;
+                    return null;
+                }
+            }
+        }
+
+        private byte[] nextLine() {
+            byte[] next = outbound.poll();
+            return next != null ? next : listener.pollOutbound();
+        }
+
+        private void closeNow() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeAfterFlush = true;
+            outbound.clear();
+            pendingLine = null;
+            leftover = null;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar
+            }
+            if (listener != null) {
+                try {
+                    listener.onClose();
+                } catch (RuntimeException e) {
+                    System.err.println("Error al cerrar canal: " + e);
+                }
+            }
+        }
+    }
+}
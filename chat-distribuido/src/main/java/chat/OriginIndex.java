@@ -0,0 +1,174 @@
+package chat;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Mensajes conocidos agrupados por origen. Cada origen lleva una marca de agua: la
+// secuencia más alta hasta la que no falta ninguno. La sincronización pide "todo lo
+// posterior a N de X", así que su coste depende del tráfico nuevo y no del historial.
+// Lo que se sabe visto por encima de la marca sin tenerlo en memoria (recuperado del disco
+// sin texto, desalojado del historial) se guarda como rangos: un hueco que no se repara cuesta un rango, no uno por mensaje
+public class OriginIndex {
+    private final ConcurrentHashMap<String, Origin> origins = new ConcurrentHashMap<>();
+
+    private static class Origin {
+        final ConcurrentSkipListMap<Long, ChatMessage> messages = new ConcurrentSkipListMap<>();
+        volatile long watermark;
+        // Rangos [inicio, fin] vistos por encima de la marca y que no están en messages
+        private final TreeMap<Long, Long> seen = new TreeMap<>();
+
+        synchronized boolean add(ChatMessage message) {
+            if (message.seq <= watermark || isSeen(message.seq) || messages.putIfAbsent(message.seq, message) != null) {
+                return false;
+            }
+            advance();
+            return true;
+        }
+
+        synchronized void markSeen(long seq) {
+            if (seq > watermark && !messages.containsKey(seq) && !isSeen(seq)) {
+                addSeen(seq);
+                advance();
+            }
+        }
+
+        // Desalojado del historial: por encima de la marca queda como visto, o una réplica que
+        // lo reenviara lo haría pasar por nuevo
+        synchronized void remove(long seq) {
+            if (messages.remove(seq) != null && seq > watermark) {
+                addSeen(seq);
+            }
+        }
+
+        // Lo anterior a seq ya no se puede reparar: la marca salta hasta ahí
+        synchronized void markSeenThrough(long seq) {
+            if (seq > watermark) {
+                watermark = seq;
+                Map.Entry<Long, Long> straddling = seen.floorEntry(seq);
+                seen.headMap(seq, true).clear();
+                if (straddling != null && straddling.getValue() > seq) {
+                    seen.put(seq + 1, straddling.getValue());
+                }
+                advance();
+            }
+        }
+
+        synchronized boolean contains(long seq) {
+            return seq <= watermark || messages.containsKey(seq) || isSeen(seq);
+        }
+
+        private boolean isSeen(long seq) {
+            Map.Entry<Long, Long> range = seen.floorEntry(seq);
+            return range != null && range.getValue() >= seq;
+        }
+
+        // Une seq con los rangos contiguos
+        private void addSeen(long seq) {
+            long start = seq;
+            long end = seq;
+            Map.Entry<Long, Long> before = seen.floorEntry(seq - 1);
+            if (before != null && before.getValue() == seq - 1) {
+                start = before.getKey();
+            }
+            Long after = seen.remove(seq + 1);
+            if (after != null) {
+                end = after;
+            }
+            seen.put(start, end);
+        }
+
+        private void advance() {
+            long next = watermark + 1;
+            while (true) {
+                if (messages.containsKey(next)) {
+                    next++;
+                } else if (!seen.isEmpty() && seen.firstKey() == next) {
+                    next = seen.pollFirstEntry().getValue() + 1;
+                } else {
+                    break;
+                }
+            }
+            watermark = next - 1;
+        }
+    }
+
+    // false si el mensaje ya se conocía
+    public boolean add(ChatMessage message) {
+        return origins.computeIfAbsent(message.origin, k -> new Origin()).add(message);
+    }
+
+    // Mensaje recuperado del disco que no vuelve a memoria: cuenta como visto, pero la marca
+    // solo avanza si no falta ninguno anterior
+    public void markSeen(String origin, long seq) {
+        origins.computeIfAbsent(origin, k -> new Origin()).markSeen(seq);
+    }
+
+    // Ya se conoce: está en memoria, por debajo de la marca o visto sin texto
+    public boolean contains(String origin, long seq) {
+        Origin known = origins.get(origin);
+        return known != null && known.contains(seq);
+    }
+
+    // Ya llegó algo de ese origen
+    public boolean knows(String origin) {
+        return origins.containsKey(origin);
+    }
+
+    // Lo anterior a seq se perdió con segmentos borrados: no se vuelve a pedir
+    public void markSeenThrough(String origin, long seq) {
+        origins.computeIfAbsent(origin, k -> new Origin()).markSeenThrough(seq);
+    }
+
+    // Al desalojar del historial: sigue contando como visto para no volver a aceptarlo
+    public void remove(ChatMessage message) {
+        Origin origin = origins.get(message.origin);
+        if (origin != null) {
+            origin.remove(message.seq);
+        }
+    }
+
+    // Vector origen=marca,origen=marca para pedir lo que falta
+    public String vector() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue().watermark);
+        }
+        return sb.toString();
+    }
+
+    public static Map<String, Long> parseVector(String vector) {
+        Map<String, Long> result = new HashMap<>();
+        if (vector.isEmpty()) {
+            return result;
+        }
+        for (String entry : vector.split(",")) {
+            int eq = entry.lastIndexOf('=');
+            if (eq > 0) {
+                try {
+                    result.put(entry.substring(0, eq), Long.parseLong(entry.substring(eq + 1)));
+                } catch (NumberFormatException e) {
+                    // Entrada inválida: se pide todo de ese origen
+                }
+            }
+        }
+        return result;
+    }
+
+    // Mensajes posteriores al vector, como mucho limit
+    public List<ChatMessage> since(Map<String, Long> vector, int limit) {
+        List<ChatMessage> result = new ArrayList<>();
+        for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+            long after = vector.getOrDefault(entry.getKey(), 0L);
+            for (ChatMessage message : entry.getValue().messages.tailMap(after, false).values()) {
+                if (result.size() >= limit) {
+                    return result;
+                }
+                result.add(message);
+            }
+        }
+        return result;
+    }
+}
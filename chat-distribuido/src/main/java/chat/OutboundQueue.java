@@ -0,0 +1,194 @@
+package chat;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// Cola de salida acotada de un cliente. Quien difunde solo encola; el escritor de la
+// conexión la vacía a su ritmo, así un cliente lento no frena a los demás. Las líneas van
+// ya codificadas: una difusión codifica una vez y comparte el array con todas las colas
+public class OutboundQueue {
+    // El mismo que usan los lectores de líneas de clientes; fijo para que nodos y clientes con
+    // distinto juego por defecto se entiendan
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    enum Policy {
+        // Se descarta la línea más antigua
+        DESCARTAR,
+        // Lo pendiente se sustituye por un aviso con el número de líneas omitidas
+        RESUMIR,
+        // Se cierra la conexión
+        DESCONECTAR;
+
+        static Policy parse(String value) {
+            try {
+                return valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Política de desbordamiento inválida: " + value);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final LongAdder droppedTotal;
+    private final ArrayDeque<byte[]> lines = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private long dropped;
+    // Aviso de RESUMIR aún en la cola y líneas que resume
+    private byte[] notice;
+    private int omitted;
+    private int highWater;
+    private boolean closed;
+    // Cerrada con finish(): lo pendiente se sigue entregando
+    private boolean finishing;
+
+    // droppedTotal acumula los descartes de todas las colas del servidor
+    public OutboundQueue(int capacity, Policy policy, LongAdder droppedTotal) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.droppedTotal = droppedTotal;
+    }
+
+    // Línea con su salto, lista para el socket; no se debe modificar después
+    static byte[] encode(String line) {
+        return (line + "\n").getBytes(CHARSET);
+    }
+
+    // false si la cola está llena y la política es desconectar
+    public boolean offer(byte[] line) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (lines.size() >= capacity) {
+                switch (policy) {
+                    case DESCONECTAR:
+                        // Solo la primera vez: después la cola queda cerrada
+                        closed = true;
+                        lines.clear();
+                        notEmpty.signalAll();
+                        return false;
+                    case RESUMIR:
+                        int collapsed = lines.size() - (notice != null ? 1 : 0);
+                        omitted += collapsed;
+                        lines.clear();
+                        notice = encode("--- " + omitted + " mensajes omitidos por congestión ---");
+                        lines.add(notice);
+                        drop(collapsed);
+                        break;
+                    default:
+                        lines.poll();
+                        drop(1);
+                        break;
+                }
+            }
+            lines.add(line);
+            highWater = Math.max(highWater, lines.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drop(long count) {
+        dropped += count;
+        droppedTotal.add(count);
+    }
+
+    // Espera a que haya algo; null cuando la cola se cierra
+    public byte[] take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (lines.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public byte[] poll() {
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] next() {
+        byte[] line = lines.poll();
+        if (line != null && line == notice) {
+            notice = null;
+            omitted = 0;
+        }
+        return line;
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return lines.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (!finishing) {
+                lines.clear();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // No admite más líneas, pero take() entrega las que quedan antes de devolver null
+    public void finish() {
+        lock.lock();
+        try {
+            closed = true;
+            finishing = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return lines.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int highWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
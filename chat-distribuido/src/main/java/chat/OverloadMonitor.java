@@ -0,0 +1,79 @@
+package chat;
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+
+// Modo sobrecarga: se activa cuando el heap ocupado tras la última recolección o los hilos
+// vivos pasan de su umbral, y se desactiva con un margen por debajo para no oscilar.
+// Mientras dura, el servidor rechaza clientes nuevos y descarta sus líneas: mejor perder
+// mensajes de algunos que quedarse sin memoria o sin hilos y caer con todos
+public class OverloadMonitor {
+    static final long CHECK_MILLIS = 250;
+    // Fracción de cada umbral por debajo de la que se sale del modo
+    static final double RECOVERY = 0.9;
+
+    private final String serverName;
+    private final double heapFraction;
+    private final int maxThreads;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private volatile boolean overloaded;
+    private volatile double heapUsed;
+
+    // 0 desactiva cada umbral
+    public OverloadMonitor(String serverName, double heapFraction, int maxThreads) {
+        this.serverName = serverName;
+        this.heapFraction = heapFraction;
+        this.maxThreads = maxThreads;
+    }
+
+    public boolean isEnabled() {
+        return heapFraction > 0 || maxThreads > 0;
+    }
+
+    public void start(ScheduledExecutorService timers) {
+        timers.scheduleWithFixedDelay(this::check, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public double heapUsed() {
+        return heapUsed;
+    }
+
+    void check() {
+        heapUsed = heapAfterGc();
+        int threads = threadBean.getThreadCount();
+        boolean heapHigh = heapFraction > 0 && heapUsed >= heapFraction;
+        boolean threadsHigh = maxThreads > 0 && threads >= maxThreads;
+        if (!overloaded && (heapHigh || threadsHigh)) {
+            overloaded = true;
+            System.out.println("[" + serverName + "] Sobrecarga (heap " + Math.round(heapUsed * 100)
+                    + "%, " + threads + " hilos): se rechazan clientes nuevos y sus líneas");
+        } else if (overloaded && (heapFraction <= 0 || heapUsed < heapFraction * RECOVERY)
+                && (maxThreads <= 0 || threads < maxThreads * RECOVERY)) {
+            overloaded = false;
+            System.out.println("[" + serverName + "] Fin de la sobrecarga (heap " + Math.round(heapUsed * 100)
+                    + "%, " + threads + " hilos)");
+        }
+    }
+
+    // Lo que quedó en cada zona tras su última recolección, sin la basura de después: el uso
+    // actual de la zona vieja incluye lo que aún no se ha recogido, y con recolectores que la
+    // dejan llenarse antes de limpiarla un servidor sano parecería sobrecargado. Sobre el
+    // heap máximo
+    private static double heapAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return (double) used / Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,263 @@
+package chat;
+
+import java.io.*;
+import java.nio.charset.*;
+
+// Trama binaria entre réplicas, negociada en el saludo PEER:
+// [longitud int][tipo byte][origen: short + bytes][seq long][sala: short + bytes][texto: bytes]
+// y, si se negoció CLOCK, [marca long] tras seq. El texto viaja tal cual en UTF-8, así que
+// puede contener '||' o saltos de línea
+public class PeerFrame {
+    static final byte REPLICATE = 1;
+    static final byte SYNC_SINCE = 2;
+    static final byte SYNC_MSG = 3;
+    // Lista de miembros (Membership.encode) en el texto
+    static final byte MEMBERS = 4;
+    // Latido del enlace y su respuesta; solo con tramas
+    static final byte PING = 5;
+    static final byte PONG = 6;
+    // Cierre de lote con su número (en seq) y el acuse de la réplica; solo si se negoció ACKS
+    static final byte BATCH = 7;
+    static final byte ACK = 8;
+    // Tramas seguidas comprimidas (Compression) tras el tipo; solo si se negoció DEFLATE
+    static final byte DEFLATED = 9;
+    static final int MAX_FRAME = 1 << 20;
+    // Lo que la forma de texto añade al mensaje además de origen y sala: el prefijo más largo
+    // ("SYNC_SINCE:"), los separadores y una seq de 20 cifras
+    private static final int LINE_OVERHEAD = 11 + 1 + 20 + 1 + 1;
+    // Saludo "PEER:<nombre> binario"; el servidor que lo entiende contesta "BINARIO"
+    static final String NEGOTIATE = "binario";
+    static final String ACCEPT = "BINARIO";
+    // Capacidades tras "binario" en el saludo; la respuesta repite las que acepta.
+    // ACKS: la réplica confirma cada lote. CLOCK: las tramas llevan la marca del reloj híbrido
+    static final String ACKS = "acuses";
+    static final String CLOCK = "reloj";
+
+    final byte type;
+    final ChatMessage message;
+    // Para medir cuánto espera en la cola de cada enlace
+    final long createdNanos = System.nanoTime();
+    // Quién espera los acuses de las réplicas; se fija antes de encolarla en los enlaces
+    WriteQuorum quorum;
+    // Se codifica una vez por formato aunque se envíe a varias réplicas; la carrera es inocua
+    private byte[] bytes;
+    private byte[] clockBytes;
+
+    public PeerFrame(byte type, ChatMessage message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    // SYNC_SINCE no lleva mensaje: el vector va como texto
+    public static PeerFrame syncSince(String vector) {
+        return new PeerFrame(SYNC_SINCE, new ChatMessage("", 0, vector));
+    }
+
+    public static PeerFrame control(byte type) {
+        return new PeerFrame(type, new ChatMessage("", 0, ""));
+    }
+
+    public static PeerFrame members(String list) {
+        return new PeerFrame(MEMBERS, new ChatMessage("", 0, list));
+    }
+
+    public static PeerFrame batch(long number) {
+        return new PeerFrame(BATCH, new ChatMessage("", number, ""));
+    }
+
+    public static PeerFrame ack(long number) {
+        return new PeerFrame(ACK, new ChatMessage("", number, ""));
+    }
+
+    // Bytes de texto que caben con ese origen y sala tanto en una trama como en su línea;
+    // un mensaje más largo cerraría el enlace al llegar
+    static int maxText(String origin, String room) {
+        int header = utf8Length(origin) + utf8Length(room);
+        int frame = MAX_FRAME - (1 + 2 + 8 + 8 + 2) - header;
+        int line = NioReactor.MAX_LINE - LINE_OVERHEAD - header;
+        return Math.min(frame, line);
+    }
+
+    static boolean fits(String origin, String room, String text) {
+        int max = maxText(origin, room);
+        // Cada carácter ocupa como mucho tres bytes: casi nunca hace falta contarlos
+        return text.length() * 3L <= max || utf8Length(text) <= max;
+    }
+
+    // Se puede enviar sin que la réplica la rechace por tamaño
+    public boolean fits() {
+        return fits(message.origin, message.room, message.text);
+    }
+
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public byte[] bytes() {
+        return bytes(false);
+    }
+
+    public byte[] bytes(boolean clock) {
+        byte[] encoded = clock ? clockBytes : bytes;
+        if (encoded == null) {
+            byte[] origin = message.origin.getBytes(StandardCharsets.UTF_8);
+            byte[] room = message.room.getBytes(StandardCharsets.UTF_8);
+            byte[] text = message.text.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 2 + origin.length + 8 + (clock ? 8 : 0) + 2 + room.length + text.length;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(4 + length);
+            DataOutputStream out = new DataOutputStream(buffer);
+            try {
+                out.writeInt(length);
+                out.writeByte(type);
+                out.writeShort(origin.length);
+                out.write(origin);
+                out.writeLong(message.seq);
+                if (clock) {
+                    out.writeLong(message.hlc);
+                }
+                out.writeShort(room.length);
+                out.write(room);
+                out.write(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            encoded = buffer.toByteArray();
+            if (clock) {
+                clockBytes = encoded;
+            } else {
+                bytes = encoded;
+            }
+        }
+        return encoded;
+    }
+
+    public static PeerFrame decode(byte[] data, int offset, int length) throws IOException {
+        return decode(data, offset, length, false);
+    }
+
+    // Cuerpo de la trama, sin la longitud
+    public static PeerFrame decode(byte[] data, int offset, int length, boolean clock) throws IOException {
+        int fixed = 1 + 2 + 8 + (clock ? 8 : 0) + 2;
+        if (length < fixed) {
+            throw new IOException("trama incompleta");
+        }
+        int end = offset + length;
+        byte type = data[offset];
+        int originLength = readShort(data, offset + 1);
+        int pos = offset + 3;
+        if (pos + originLength + fixed - 3 > end) {
+            throw new IOException("trama incompleta");
+        }
+        String origin = new String(data, pos, originLength, StandardCharsets.UTF_8);
+        pos += originLength;
+        long seq = readLong(data, pos);
+        pos += 8;
+        long hlc = 0;
+        if (clock) {
+            hlc = readLong(data, pos);
+            pos += 8;
+        }
+        int roomLength = readShort(data, pos);
+        pos += 2;
+        if (pos + roomLength > end) {
+            throw new IOException("trama incompleta");
+        }
+        String room = new String(data, pos, roomLength, StandardCharsets.UTF_8);
+        pos += roomLength;
+        String text = new String(data, pos, end - pos, StandardCharsets.UTF_8);
+        return new PeerFrame(type, new ChatMessage(origin, seq, room, text, hlc));
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[pos + i] & 0xff);
+        }
+        return value;
+    }
+
+    public static PeerFrame read(DataInputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    // null al final del flujo
+    public static PeerFrame read(DataInputStream in, boolean clock) throws IOException {
+        byte[] data = readBody(in);
+        return data == null ? null : decode(data, 0, data.length, clock);
+    }
+
+    // Cuerpo de la siguiente trama sin decodificar (puede ser DEFLATED); null al final del flujo
+    public static byte[] readBody(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_FRAME) {
+            throw new IOException("longitud de trama inválida: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    // Forma de texto para réplicas que no negocian tramas
+    public String toLine() {
+        switch (type) {
+            case REPLICATE:
+                return "REPLICATE:" + message.encode();
+            case SYNC_SINCE:
+                return "SYNC_SINCE:" + message.text;
+            case MEMBERS:
+                return "MEMBERS:" + message.text;
+            case PING:
+                return "PING";
+            case PONG:
+                return "PONG";
+            default:
+                return "SYNC_MSG:" + message.encode();
+        }
+    }
+
+    // null si la línea no es una trama conocida o le falta la cabecera de origen
+    public static PeerFrame parseLine(String line) {
+        if (line.startsWith("SYNC_SINCE:")) {
+            return syncSince(line.substring(11));
+        }
+        if (line.startsWith("MEMBERS:")) {
+            return members(line.substring(8));
+        }
+        byte type;
+        String body;
+        if (line.startsWith("REPLICATE:")) {
+            type = REPLICATE;
+            body = line.substring(10);
+        } else if (line.startsWith("SYNC_MSG:")) {
+            type = SYNC_MSG;
+            body = line.substring(9);
+        } else {
+            return null;
+        }
+        ChatMessage message = ChatMessage.decode(body);
+        return message == null ? null : new PeerFrame(type, message);
+    }
+}
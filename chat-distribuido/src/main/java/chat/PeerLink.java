@@ -0,0 +1,554 @@
+package chat;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+// Conexión persistente con otra réplica: las líneas salientes se encolan, se escriben
+// por lotes en orden y el enlace se restablece solo con espera exponencial.
+// Si la réplica acepta tramas binarias se usan; si no, el protocolo de texto.
+// Con tramas se envía un PING por latido y las respuestas alimentan un detector
+// phi-accrual: una réplica que deja de contestar se da por caída aunque el TCP siga abierto.
+// Si además confirma lotes, cada lote lleva un número y se guarda hasta su acuse: tras
+// un corte se reenvía solo lo que no llegó a confirmarse, sin esperar a la sincronización.
+// Si admite compresión, los lotes que pasan del umbral van en una trama comprimida
+public class PeerLink {
+    static final int QUEUE_CAPACITY = 10000;
+    static final int CONNECT_TIMEOUT = 1000;
+    static final long MIN_BACKOFF = 100;
+    static final long MAX_BACKOFF = 5000;
+    static final int WRITE_BUFFER = 64 * 1024;
+
+    private final String localName;
+    private final String address;
+    private final String host;
+    // Puerto de réplicas del otro servidor: el de clientes más el desfase
+    private final int port;
+    private final ThreadFactory threads;
+    private final Consumer<PeerFrame> onResponse;
+    private final long heartbeatMillis;
+    private final double phiThreshold;
+    private final FailureDetector detector;
+    // Tramas por lote y cuánto se espera a completarlo antes de enviar (0 = lo que haya)
+    private final int batchSize;
+    private final long lingerNanos;
+    private final Metrics metrics;
+    // Lo que se ofrece en el saludo: null = sin compresión
+    private final String compressionOffer;
+    private final byte[] dictionary;
+    private final int compressionThreshold;
+    private final BlockingQueue<PeerFrame> outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Petición de sincronización pendiente: solo vale la última, no se acumulan mientras está caído
+    private final AtomicReference<PeerFrame> syncRequest = new AtomicReference<>();
+    // Lotes enviados sin acuse, en orden; los comparten el escritor y el lector
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private int inFlightFrames;
+    private long nextBatch;
+    private volatile boolean connected;
+    private volatile boolean binary;
+    // La réplica confirma los lotes y las tramas llevan la marca del reloj híbrido
+    private volatile boolean acks;
+    private volatile boolean clock;
+    // Flujos deflate de esta conexión; null si la réplica no comprime. La salida es del
+    // escritor y la entrada del lector
+    private Compression.Output compressor;
+    private volatile Compression.Input decompressor;
+    // La réplica no contestó al saludo binario: se le habla siempre en texto
+    private boolean textOnly;
+    // Ya negoció tramas alguna vez: si deja de contestar al saludo está colgada, no es antigua
+    private boolean binarySeen;
+    // Desde cuándo está caída; 0 = disponible o aún sin conectar
+    private volatile long downSince;
+    private volatile long startedAt;
+    private volatile boolean running = true;
+    // Nombre de la réplica cuando la lista de miembros lo da a conocer
+    private volatile String peerName = "?";
+    private volatile Thread writer;
+    private volatile Socket current;
+
+    private static final class Batch {
+        final long number;
+        final List<PeerFrame> frames;
+
+        Batch(long number, List<PeerFrame> frames) {
+            this.number = number;
+            this.frames = frames;
+        }
+    }
+
+    public PeerLink(String localName, String address, ServerConfig config, ThreadFactory threads,
+            Metrics metrics, Consumer<PeerFrame> onResponse) {
+        String[] parts = address.split(":");
+        this.localName = localName;
+        this.address = address;
+        this.host = parts[0];
+        this.port = Integer.parseInt(parts[1]) + config.peerPortOffset;
+        // En el puerto de clientes se habla siempre en texto
+        this.textOnly = config.peerPortOffset == 0;
+        this.threads = threads;
+        this.onResponse = onResponse;
+        this.metrics = metrics;
+        this.batchSize = config.replicationBatch;
+        this.lingerNanos = config.replicationLingerMillis * 1_000_000;
+        this.heartbeatMillis = config.heartbeatMillis;
+        this.phiThreshold = config.phiThreshold;
+        this.detector = new FailureDetector(heartbeatMillis);
+        this.compressionOffer = config.compression ? Compression.token(config.dictionary) : null;
+        this.dictionary = config.dictionary;
+        this.compressionThreshold = config.compressionThreshold;
+    }
+
+    public void start() {
+        startedAt = System.currentTimeMillis();
+        writer = threads.newThread(this::writeLoop);
+        writer.start();
+    }
+
+    public String getPeerName() {
+        return peerName;
+    }
+
+    public void setPeerName(String peerName) {
+        this.peerName = peerName;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isAcknowledging() {
+        return connected && acks;
+    }
+
+    public long getDownSince() {
+        return downSince;
+    }
+
+    // Desde cuándo no hay conexión, aunque nunca la hubiera; 0 si está conectado
+    public long getUnreachableSince() {
+        if (connected) {
+            return 0;
+        }
+        long since = downSince;
+        return since > 0 ? since : startedAt;
+    }
+
+    public double phi() {
+        return connected && binary ? detector.phi(System.currentTimeMillis()) : 0;
+    }
+
+    public int pending() {
+        return outbound.size();
+    }
+
+    // Tramas enviadas que la réplica aún no ha confirmado
+    public int unacknowledged() {
+        synchronized (inFlight) {
+            return inFlightFrames;
+        }
+    }
+
+    // Lo llama el servidor en cada latido: si la réplica no contesta se corta el enlace,
+    // lo que también desbloquea una escritura atascada, y se reconecta con espera
+    public void checkHealth() {
+        if (!connected || !binary) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        double phi = detector.phi(now);
+        if (phi > phiThreshold) {
+            System.out.printf("[%s] %s sin respuesta desde hace %d ms (phi %.1f): se da por caída%n",
+                    localName, address, detector.silenceMillis(now), phi);
+            connected = false;
+            Socket socket = current;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    // Nunca bloquea: si la réplica lleva mucho caída se descartan las tramas más antiguas.
+    // Una trama que no cabe se descarta aquí: la réplica cerraría el enlace y, con acuses, el
+    // lote se reenviaría sin fin
+    public void send(PeerFrame frame) {
+        if (!frame.fits()) {
+            System.out.println("[" + localName + "] Trama demasiado grande para " + address + ": se descarta "
+                    + frame.message.origin + ":" + frame.message.seq);
+            return;
+        }
+        while (!outbound.offer(frame)) {
+            outbound.poll();
+        }
+    }
+
+    // Sale con el siguiente lote o, como mucho, al siguiente latido; si no hay conexión, al
+    // reconectar. Sustituye a la que aún no haya salido
+    public void requestSync(PeerFrame frame) {
+        syncRequest.set(frame);
+    }
+
+    public void stop() {
+        running = false;
+        Thread thread = writer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Socket socket = current;
+        if (socket != null) {
+            closeQuietly(socket);
+        }
+    }
+
+    // Espera como mucho millis a que salga lo encolado (p. ej. al apagarse)
+    public void drain(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (connected && (!outbound.isEmpty() || unacknowledged() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void writeLoop() {
+        List<PeerFrame> batch = new ArrayList<>();
+        PeerFrame ping = PeerFrame.control(PeerFrame.PING);
+        long backoff = MIN_BACKOFF;
+
+        while (running) {
+            Socket socket = new Socket();
+            current = socket;
+            boolean established = false;
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+                // Los lotes ya se agrupan al escribir: Nagle solo retrasaría lotes y acuses
+                socket.setTcpNoDelay(true);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                acks = false;
+                clock = false;
+                endCompression();
+                binary = !textOnly && negotiate(socket, in, out);
+                if (!binary) {
+                    out.write(("PEER:" + localName + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+
+                established = true;
+                backoff = MIN_BACKOFF;
+                detector.reset(System.currentTimeMillis());
+                connected = true;
+                String after = downSince > 0 ? " tras " + (System.currentTimeMillis() - downSince) / 1000 + " s caído" : "";
+                downSince = 0;
+                System.out.println("[" + localName + "] Enlace con " + address + " establecido"
+                        + (binary ? compressor != null ? " (binario, deflate)" : " (binario)" : "") + after);
+                threads.newThread(() -> readLoop(socket, in)).start();
+                if (acks) {
+                    resendUnacknowledged(out);
+                } else {
+                    // Sin acuses lo que quedó por confirmar vuelve al lote, por delante
+                    reclaimUnacknowledged(batch);
+                }
+
+                long lastPing = 0;
+                while (running) {
+                    // Sin acuses, un lote que falló se reenvía tras reconectar. También en texto se
+                    // despierta cada latido: así ve que el lector perdió la conexión aunque no
+                    // haya nada que enviar, y reconecta
+                    if (batch.isEmpty()) {
+                        long wait = binary ? Math.max(1, lastPing + heartbeatMillis - System.currentTimeMillis()) : heartbeatMillis;
+                        PeerFrame first = outbound.poll(wait, TimeUnit.MILLISECONDS);
+                        if (first != null) {
+                            batch.add(first);
+                            fill(batch);
+                        }
+                    }
+                    PeerFrame sync = syncRequest.getAndSet(null);
+                    if (sync != null) {
+                        batch.add(sync);
+                    }
+                    if (!connected) {
+                        throw new IOException("cerrado por la réplica");
+                    }
+                    long now = System.currentTimeMillis();
+                    if (binary && now - lastPing >= heartbeatMillis) {
+                        out.write(ping.bytes(clock));
+                        lastPing = now;
+                    }
+                    if (acks && !batch.isEmpty()) {
+                        // Desde aquí el lote queda en inFlight: si el envío falla sale de ahí
+                        List<PeerFrame> frames = new ArrayList<>(batch);
+                        batch.clear();
+                        write(out, frames, track(frames));
+                    } else {
+                        for (PeerFrame frame : batch) {
+                            if (binary) {
+                                send(out, frame);
+                            } else {
+                                out.write((frame.toLine() + "\n").getBytes(StandardCharsets.UTF_8));
+                            }
+                        }
+                        endBlock(out);
+                        out.flush();
+                        recordLag(batch);
+                        batch.clear();
+                    }
+                }
+            } catch (IOException e) {
+                // Solo se informa del cambio de estado, no de cada reintento
+                if (established) {
+                    System.out.println("[" + localName + "] Enlace con " + address + " perdido: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                connected = false;
+                closeQuietly(socket);
+            }
+            if (established) {
+                downSince = System.currentTimeMillis();
+            }
+            if (!established) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        }
+    }
+
+    // Completa el lote con lo que ya esté en cola y, con espera, con lo que llegue a tiempo
+    private void fill(List<PeerFrame> batch) throws InterruptedException {
+        outbound.drainTo(batch, batchSize - batch.size());
+        if (lingerNanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize) {
+            long left = deadline - System.nanoTime();
+            PeerFrame next = left > 0 ? outbound.poll(left, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            outbound.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    // Numera el lote y lo guarda hasta su acuse. Una réplica que acepta pero nunca confirma
+    // no hace crecer esto sin límite: lo más antiguo se suelta y lo repara la sincronización
+    long track(List<PeerFrame> frames) {
+        synchronized (inFlight) {
+            long number = ++nextBatch;
+            inFlight.add(new Batch(number, frames));
+            inFlightFrames += frames.size();
+            while (inFlightFrames > QUEUE_CAPACITY) {
+                inFlightFrames -= inFlight.poll().frames.size();
+            }
+            return number;
+        }
+    }
+
+    private void write(OutputStream out, List<PeerFrame> frames, long number) throws IOException {
+        for (PeerFrame frame : frames) {
+            send(out, frame);
+        }
+        send(out, PeerFrame.batch(number));
+        endBlock(out);
+        out.flush();
+        recordLag(frames);
+    }
+
+    // Con compresión las tramas se juntan hasta endBlock
+    private void send(OutputStream out, PeerFrame frame) throws IOException {
+        if (compressor != null) {
+            compressor.add(frame.bytes(clock), out);
+        } else {
+            out.write(frame.bytes(clock));
+        }
+    }
+
+    private void endBlock(OutputStream out) throws IOException {
+        if (compressor != null) {
+            compressor.flush(out);
+        }
+    }
+
+    // Cada conexión empieza flujos deflate nuevos
+    private void endCompression() {
+        if (compressor != null) {
+            compressor.end();
+            compressor = null;
+        }
+        decompressor = null;
+    }
+
+    private void recordLag(List<PeerFrame> frames) {
+        long flushed = System.nanoTime();
+        for (PeerFrame frame : frames) {
+            if (frame.type == PeerFrame.REPLICATE) {
+                metrics.replicationLag.record(flushed - frame.createdNanos);
+            }
+        }
+    }
+
+    // Tras reconectar, antes que nada, los lotes que se enviaron y no llegaron a confirmarse,
+    // con su número: la réplica descarta los mensajes que ya tenía
+    void resendUnacknowledged(OutputStream out) throws IOException {
+        List<Batch> batches;
+        synchronized (inFlight) {
+            batches = new ArrayList<>(inFlight);
+        }
+        for (Batch batch : batches) {
+            write(out, batch.frames, batch.number);
+            metrics.retransmitted.add(batch.frames.size());
+        }
+    }
+
+    void reclaimUnacknowledged(List<PeerFrame> batch) {
+        List<PeerFrame> frames = new ArrayList<>();
+        synchronized (inFlight) {
+            for (Batch unacked : inFlight) {
+                frames.addAll(unacked.frames);
+            }
+            inFlight.clear();
+            inFlightFrames = 0;
+        }
+        batch.addAll(0, frames);
+    }
+
+    // Acuse acumulado: confirma el lote number y todos los anteriores
+    void acknowledge(long number) {
+        List<Batch> confirmed = new ArrayList<>();
+        synchronized (inFlight) {
+            while (!inFlight.isEmpty() && inFlight.peek().number <= number) {
+                Batch batch = inFlight.poll();
+                inFlightFrames -= batch.frames.size();
+                confirmed.add(batch);
+            }
+        }
+        long now = System.nanoTime();
+        for (Batch batch : confirmed) {
+            for (PeerFrame frame : batch.frames) {
+                if (frame.type == PeerFrame.REPLICATE) {
+                    metrics.replicationAck.record(now - frame.createdNanos);
+                    if (frame.quorum != null) {
+                        frame.quorum.ack();
+                    }
+                }
+            }
+        }
+    }
+
+    // Pide tramas binarias con acuses, reloj y compresión. Una réplica antigua no contesta al saludo: se
+    // cierra y se vuelve a conectar en texto, para no arriesgar una respuesta que llegue
+    // tarde. Una con tramas pero sin alguna capacidad contesta ACCEPT sin ella
+    private boolean negotiate(Socket socket, InputStream in, OutputStream out) throws IOException {
+        out.write(("PEER:" + localName + " " + PeerFrame.NEGOTIATE + " " + PeerFrame.ACKS + " "
+                + PeerFrame.CLOCK + (compressionOffer != null ? " " + compressionOffer : "") + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        socket.setSoTimeout(CONNECT_TIMEOUT);
+        try {
+            String[] reply = readLine(in).split(" ");
+            if (!reply[0].equals(PeerFrame.ACCEPT)) {
+                throw new IOException("respuesta inesperada al saludo: " + String.join(" ", reply));
+            }
+            List<String> accepted = Arrays.asList(reply);
+            acks = accepted.contains(PeerFrame.ACKS);
+            clock = accepted.contains(PeerFrame.CLOCK);
+            for (String token : accepted) {
+                if (compressionOffer != null && token.startsWith(Compression.DEFLATE)) {
+                    byte[] agreed = Compression.agreed(dictionary, token);
+                    compressor = new Compression.Output(agreed, compressionThreshold, metrics);
+                    decompressor = new Compression.Input(agreed);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            if (binarySeen) {
+                throw new IOException("la réplica no contesta al saludo");
+            }
+            textOnly = true;
+            throw new IOException("la réplica no admite tramas binarias");
+        }
+        socket.setSoTimeout(0);
+        binarySeen = true;
+        return true;
+    }
+
+    // Lee la respuesta al saludo byte a byte para no consumir tramas de más
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("cerrado durante el saludo");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private void readLoop(Socket socket, InputStream stream) {
+        Compression.Input inflater = decompressor;
+        try {
+            if (binary) {
+                DataInputStream in = new DataInputStream(stream);
+                byte[] body;
+                while ((body = PeerFrame.readBody(in)) != null) {
+                    // Cualquier trama demuestra que la réplica está viva, no solo el PONG
+                    detector.heartbeat(System.currentTimeMillis());
+                    if (body[0] == PeerFrame.DEFLATED && inflater != null) {
+                        inflater.inflate(body, 1, body.length - 1, this::receive);
+                    } else {
+                        receive(body, 0, body.length);
+                    }
+                }
+            } else {
+                BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    PeerFrame frame = PeerFrame.parseLine(line);
+                    if (frame != null) {
+                        onResponse.accept(frame);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // El escritor detecta el cierre y reconecta
+        } finally {
+            connected = false;
+            closeQuietly(socket);
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private void receive(byte[] data, int offset, int length) throws IOException {
+        PeerFrame frame = PeerFrame.decode(data, offset, length, clock);
+        if (frame.type == PeerFrame.ACK) {
+            acknowledge(frame.message.seq);
+        } else if (frame.type != PeerFrame.PONG) {
+            onResponse.accept(frame);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignorar
+        }
+    }
+}
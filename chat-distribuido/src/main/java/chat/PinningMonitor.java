@@ -0,0 +1,63 @@
+package chat;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import jdk.jfr.*;
+import jdk.jfr.consumer.*;
+
+// Escucha el evento JFR jdk.VirtualThreadPinned (Java 21+): un bloqueo dentro de un
+// bloque synchronized retiene el hilo portador y anula la ventaja de los hilos virtuales
+public class PinningMonitor {
+    static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private final String serverName;
+    private final LongAdder pinnedEvents = new LongAdder();
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+
+    public PinningMonitor(String serverName) {
+        this.serverName = serverName;
+    }
+
+    // Si la JVM no tiene el evento, RecordingStream lo ignoraría sin decir nada: se avisa
+    public void start(long thresholdMillis) {
+        if (FlightRecorder.getFlightRecorder().getEventTypes().stream().noneMatch(t -> t.getName().equals(EVENT))) {
+            System.out.println("[" + serverName + "] Detección de pinning no disponible: esta JVM no tiene el evento "
+                    + EVENT + " (Java 21+)");
+            return;
+        }
+        RecordingStream stream = new RecordingStream();
+        stream.enable(EVENT)
+                .withThreshold(Duration.ofMillis(thresholdMillis))
+                .withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        System.out.println("[" + serverName + "] Detección de pinning activa (umbral " + thresholdMillis + " ms)");
+    }
+
+    public long pinnedEvents() {
+        return pinnedEvents.sum();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedEvents.increment();
+        String site = "desconocido";
+        RecordedStackTrace stack = event.getStackTrace();
+        if (stack != null) {
+            // Primer marco fuera del JDK: normalmente quien tenía el monitor
+            for (RecordedFrame frame : stack.getFrames()) {
+                String type = frame.getMethod().getType().getName();
+                site = type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+                if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                    break;
+                }
+            }
+        }
+        // Solo se informa la primera vez de cada sitio para no inundar el log
+        if (reportedSites.add(site)) {
+            System.out.println("[" + serverName + "] Hilo virtual fijado " + event.getDuration().toMillis()
+                    + " ms en " + site + " (total: " + pinnedEvents.sum() + ")");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package chat;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Salas con su historial y sus suscriptores. El índice sala→sala es un ConcurrentHashMap
+// (bloqueo por cubeta) y cada sala tiene su propio conjunto de suscriptores, así que las
+// difusiones a salas distintas no compiten por una misma lista
+public class RoomIndex<S> {
+    static final String NAME_PATTERN = "[\\w.-]{1,32}";
+
+    static final class Room<S> {
+        final String name;
+        final HistoryStore history;
+        final Set<S> subscribers = ConcurrentHashMap.newKeySet();
+
+        Room(String name, HistoryStore history) {
+            this.name = name;
+            this.history = history;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Room<S>> rooms = new ConcurrentHashMap<>();
+    private final OriginIndex origins;
+    private final int historyCapacity;
+    private final long historyMaxAgeMillis;
+
+    public RoomIndex(OriginIndex origins, int historyCapacity, long historyMaxAgeMillis) {
+        this.origins = origins;
+        this.historyCapacity = historyCapacity;
+        this.historyMaxAgeMillis = historyMaxAgeMillis;
+    }
+
+    // La crea si no existe
+    public Room<S> room(String name) {
+        Room<S> room = rooms.get(name);
+        if (room == null) {
+            room = rooms.computeIfAbsent(name,
+                    k -> new Room<>(k, new HistoryStore(historyCapacity, historyMaxAgeMillis, origins)));
+        }
+        return room;
+    }
+
+    // null si no existe
+    public Room<S> get(String name) {
+        return rooms.get(name);
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    public Collection<Room<S>> all() {
+        return rooms.values();
+    }
+
+    public void subscribe(String name, S subscriber) {
+        room(name).subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(String name, S subscriber) {
+        Room<S> room = rooms.get(name);
+        if (room != null) {
+            room.subscribers.remove(subscriber);
+        }
+    }
+}
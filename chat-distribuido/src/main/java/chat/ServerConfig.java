@@ -0,0 +1,360 @@
+package chat;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+public class ServerConfig {
+    // Modo de E/S: "hilos" (un hilo por conexión) o "nio" (reactores con Selector)
+    String ioMode = "hilos";
+    int reactors = Runtime.getRuntime().availableProcessors();
+    // Planificador de los hilos de clientes y réplicas: "plataforma" o "virtual"
+    String threads = "plataforma";
+    // Umbral en ms para informar de hilos virtuales fijados a su portador; 0 = desactivado
+    long pinningThresholdMillis = 0;
+    // Límites del historial en memoria de cada sala; edad 0 = sin límite
+    int historyCapacity = 10000;
+    // Mensajes que se envían al entrar y en cada /historial
+    int historyPage = 50;
+    long historyMaxAgeMillis = 0;
+    // Cola de salida de cada cliente y qué hacer cuando se llena
+    int outboundCapacity = 1000;
+    OutboundQueue.Policy overflowPolicy = OutboundQueue.Policy.DESCARTAR;
+    // Directorio del registro en disco; null = solo memoria
+    String dataDir = null;
+    int maxSegments = 16;
+    // Salas que se pueden crear con /unirse
+    int maxRooms = 1000;
+    // Las réplicas se conectan al puerto de clientes más este desfase; 0 = mismo puerto
+    int peerPortOffset = 1000;
+    // Difusión entre réplicas: "malla" (a todas) o "gossip" (a unas pocas que reenvían)
+    String replication = "malla";
+    // Réplicas a las que se envía cada mensaje en gossip; 0 = según el tamaño del clúster
+    int gossipFanout = 0;
+    // Tramas por lote en cada enlace y cuánto se espera a llenarlo: más espera, menos
+    // escrituras y acuses a cambio de latencia
+    int replicationBatch = 256;
+    long replicationLingerMillis = 0;
+    // Réplicas que deben confirmar un mensaje antes del acuse a su autor (clientes con
+    // /reanudar); 0 = se confirma al aceptarlo. Si no llegan en el plazo se avisa al autor
+    int writeQuorum = 0;
+    long quorumTimeoutMillis = 2000;
+    // Latido entre réplicas y umbral del detector phi-accrual para darlas por caídas
+    long heartbeatMillis = 1000;
+    double phiThreshold = 8;
+    // Tiempo sin poder conectar con un miembro antes de darlo de baja; 0 = nunca
+    long memberTimeoutMillis = 30_000;
+    // Dirección con la que los demás conectan con este servidor; null = localhost:puerto
+    String advertise = null;
+    // Puerto local (127.0.0.1) que sirve las métricas; 0 = solo JMX
+    int metricsPort = 0;
+    // Cola de conexiones pendientes de aceptar (el núcleo la recorta a somaxconn) e hilos
+    // que aceptan del puerto de clientes; con más de uno se usa SO_REUSEPORT si lo hay
+    int backlog = 1024;
+    int acceptors = 1;
+    // Líneas por segundo que admite cada cliente y el nodo entero (0 = sin límite), cuántas
+    // pueden llegar de golpe y qué se hace con las que pasan. Las réplicas no se limitan
+    double userRate = 0;
+    int userBurst = 20;
+    double nodeRate = 0;
+    int nodeBurst = 1000;
+    TokenBucket.Policy ratePolicy = TokenBucket.Policy.RETRASAR;
+    // Umbrales del modo sobrecarga: % del heap ocupado tras recolectar e hilos vivos (0 = no)
+    int overloadHeapPercent = 0;
+    int overloadThreads = 0;
+    // Compresión de lotes, sincronizaciones e historial, negociada con cada réplica y
+    // cliente; los bloques menores que el umbral (bytes) salen sin comprimir. Diccionario
+    // compartido con las réplicas: null = ninguno
+    boolean compression = true;
+    int compressionThreshold = 512;
+    byte[] dictionary = Compression.CHAT_DICTIONARY;
+
+    boolean isGossip() {
+        return replication.equals("gossip");
+    }
+
+    boolean isNio() {
+        return ioMode.equals("nio");
+    }
+
+    boolean isVirtual() {
+        return threads.equals("virtual");
+    }
+
+    // Aplica una opción de la forma --clave=valor
+    void apply(String option) {
+        String[] parts = option.substring(2).split("=", 2);
+        String key = parts[0];
+        String value = parts.length > 1 ? parts[1] : "";
+
+        switch (key) {
+            case "io":
+                if (!value.equals("hilos") && !value.equals("nio")) {
+                    throw new IllegalArgumentException("Modo de E/S inválido: " + value);
+                }
+                ioMode = value;
+                break;
+            case "reactores":
+                reactors = Integer.parseInt(value);
+                if (reactors < 1) {
+                    throw new IllegalArgumentException("Se necesita al menos un reactor");
+                }
+                break;
+            case "hilos":
+                if (value.equals("virtual")) {
+                    virtualThreadFactory("comprobacion-");
+                } else if (!value.equals("plataforma")) {
+                    throw new IllegalArgumentException("Planificador inválido: " + value);
+                }
+                threads = value;
+                break;
+            case "detectar-pinning":
+                pinningThresholdMillis = value.isEmpty() ? 20 : Long.parseLong(value);
+                break;
+            case "historial":
+                historyCapacity = Integer.parseInt(value);
+                if (historyCapacity < 1) {
+                    throw new IllegalArgumentException("El historial necesita al menos una entrada");
+                }
+                break;
+            case "historial-pagina":
+                historyPage = Integer.parseInt(value);
+                if (historyPage < 1) {
+                    throw new IllegalArgumentException("La página de historial necesita al menos un mensaje");
+                }
+                break;
+            case "historial-minutos":
+                historyMaxAgeMillis = Long.parseLong(value) * 60_000;
+                break;
+            case "cola-salida":
+                outboundCapacity = Integer.parseInt(value);
+                if (outboundCapacity < 1) {
+                    throw new IllegalArgumentException("La cola de salida necesita al menos una línea");
+                }
+                break;
+            case "desbordamiento":
+                overflowPolicy = OutboundQueue.Policy.parse(value);
+                break;
+            case "datos":
+                dataDir = value;
+                break;
+            case "datos-segmentos":
+                maxSegments = Integer.parseInt(value);
+                break;
+            case "replicacion":
+                if (!value.equals("malla") && !value.equals("gossip")) {
+                    throw new IllegalArgumentException("Modo de replicación inválido: " + value);
+                }
+                replication = value;
+                break;
+            case "gossip-fanout":
+                gossipFanout = Integer.parseInt(value);
+                if (gossipFanout < 0) {
+                    throw new IllegalArgumentException("El fanout no puede ser negativo");
+                }
+                break;
+            case "lote-replicas":
+                replicationBatch = Integer.parseInt(value);
+                if (replicationBatch < 1) {
+                    throw new IllegalArgumentException("El lote debe tener al menos una trama");
+                }
+                break;
+            case "espera-lote-ms":
+                replicationLingerMillis = Long.parseLong(value);
+                if (replicationLingerMillis < 0) {
+                    throw new IllegalArgumentException("La espera del lote no puede ser negativa");
+                }
+                break;
+            case "quorum":
+                writeQuorum = Integer.parseInt(value);
+                if (writeQuorum < 0) {
+                    throw new IllegalArgumentException("El quórum no puede ser negativo");
+                }
+                break;
+            case "quorum-ms":
+                quorumTimeoutMillis = Long.parseLong(value);
+                if (quorumTimeoutMillis < 1) {
+                    throw new IllegalArgumentException("El plazo del quórum debe ser positivo");
+                }
+                break;
+            case "latido-ms":
+                heartbeatMillis = Long.parseLong(value);
+                if (heartbeatMillis < 10) {
+                    throw new IllegalArgumentException("El latido debe ser de al menos 10 ms");
+                }
+                break;
+            case "phi-umbral":
+                phiThreshold = Double.parseDouble(value);
+                if (phiThreshold <= 0) {
+                    throw new IllegalArgumentException("El umbral phi debe ser positivo");
+                }
+                break;
+            case "baja-s":
+                memberTimeoutMillis = Long.parseLong(value) * 1000;
+                if (memberTimeoutMillis < 0) {
+                    throw new IllegalArgumentException("El plazo de baja no puede ser negativo");
+                }
+                break;
+            case "anunciar":
+                if (!value.matches("[^:]+:\\d+")) {
+                    throw new IllegalArgumentException("Dirección a anunciar inválida: " + value);
+                }
+                advertise = value;
+                break;
+            case "salas-max":
+                maxRooms = Integer.parseInt(value);
+                if (maxRooms < 1) {
+                    throw new IllegalArgumentException("Se necesita al menos la sala general");
+                }
+                break;
+            case "metricas":
+                metricsPort = Integer.parseInt(value);
+                if (metricsPort < 0) {
+                    throw new IllegalArgumentException("Puerto de métricas inválido: " + value);
+                }
+                break;
+            case "backlog":
+                backlog = Integer.parseInt(value);
+                if (backlog < 1) {
+                    throw new IllegalArgumentException("El backlog debe ser positivo");
+                }
+                break;
+            case "aceptadores":
+                acceptors = Integer.parseInt(value);
+                if (acceptors < 1) {
+                    throw new IllegalArgumentException("Se necesita al menos un aceptador");
+                }
+                break;
+            case "limite-usuario":
+                userRate = Double.parseDouble(value);
+                if (userRate < 0) {
+                    throw new IllegalArgumentException("El límite por usuario no puede ser negativo");
+                }
+                break;
+            case "rafaga-usuario":
+                userBurst = Integer.parseInt(value);
+                if (userBurst < 1) {
+                    throw new IllegalArgumentException("La ráfaga necesita al menos una línea");
+                }
+                break;
+            case "limite-nodo":
+                nodeRate = Double.parseDouble(value);
+                if (nodeRate < 0) {
+                    throw new IllegalArgumentException("El límite del nodo no puede ser negativo");
+                }
+                break;
+            case "rafaga-nodo":
+                nodeBurst = Integer.parseInt(value);
+                if (nodeBurst < 1) {
+                    throw new IllegalArgumentException("La ráfaga necesita al menos una línea");
+                }
+                break;
+            case "exceso":
+                ratePolicy = TokenBucket.Policy.parse(value);
+                break;
+            case "sobrecarga-heap":
+                overloadHeapPercent = Integer.parseInt(value);
+                if (overloadHeapPercent < 0 || overloadHeapPercent > 100) {
+                    throw new IllegalArgumentException("El umbral de heap es un porcentaje entre 0 y 100");
+                }
+                break;
+            case "sobrecarga-hilos":
+                overloadThreads = Integer.parseInt(value);
+                if (overloadThreads < 0) {
+                    throw new IllegalArgumentException("El umbral de hilos no puede ser negativo");
+                }
+                break;
+            case "compresion":
+                if (!value.equals("si") && !value.equals("no")) {
+                    throw new IllegalArgumentException("Compresión inválida: " + value);
+                }
+                compression = value.equals("si");
+                break;
+            case "compresion-umbral":
+                compressionThreshold = Integer.parseInt(value);
+                if (compressionThreshold < 0) {
+                    throw new IllegalArgumentException("El umbral de compresión no puede ser negativo");
+                }
+                break;
+            case "diccionario":
+                dictionary = value.equals("no") ? null : readDictionary(value);
+                break;
+            case "desfase-replicas":
+                peerPortOffset = Integer.parseInt(value);
+                if (peerPortOffset < 0) {
+                    throw new IllegalArgumentException("El desfase del puerto de réplicas no puede ser negativo");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Opción desconocida: " + option);
+        }
+    }
+
+    private static byte[] readDictionary(String file) {
+        try {
+            return Files.readAllBytes(Path.of(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No se pudo leer el diccionario: " + e.getMessage());
+        }
+    }
+
+    ThreadFactory threadFactory(String prefix) {
+        if (isVirtual()) {
+            return virtualThreadFactory(prefix);
+        }
+        return Thread::new;
+    }
+
+    // Thread.ofVirtual() por reflexión: el proyecto se sigue compilando con Java 17
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Los hilos virtuales requieren Java 21 o superior");
+        }
+    }
+
+    static void printUsage() {
+        System.out.println("Opciones:");
+        System.out.println("  --io=hilos|nio     Un hilo por conexión (defecto) o reactores NIO");
+        System.out.println("  --reactores=N      Hilos reactor en modo nio (defecto: núcleos)");
+        System.out.println("  --hilos=plataforma|virtual  Planificador de clientes y réplicas (virtual: Java 21+)");
+        System.out.println("  --detectar-pinning[=ms]     Con --hilos=virtual, informa de hilos fijados más de ms (defecto 20)");
+        System.out.println("  --historial=N      Mensajes que se conservan en memoria por sala (defecto 10000)");
+        System.out.println("  --historial-pagina=N        Mensajes enviados al entrar y con /historial (defecto 50)");
+        System.out.println("  --historial-minutos=M       Descarta mensajes más antiguos que M minutos");
+        System.out.println("  --cola-salida=N    Líneas pendientes por cliente (defecto 1000)");
+        System.out.println("  --desbordamiento=descartar|resumir|desconectar  Qué hacer con un cliente lento");
+        System.out.println("  --datos=DIR        Guarda los mensajes en disco y los recupera al arrancar");
+        System.out.println("  --datos-segmentos=N         Segmentos de 64 MB que se conservan (defecto 16, 0 = todos)");
+        System.out.println("  --salas-max=N      Salas que se pueden crear con /unirse (defecto 1000)");
+        System.out.println("  --replicacion=malla|gossip  A todas las réplicas (defecto) o a unas pocas que reenvían");
+        System.out.println("  --gossip-fanout=N  Réplicas por mensaje en gossip (defecto: log2 del clúster)");
+        System.out.println("  --lote-replicas=N  Tramas por lote en cada enlace (defecto 256)");
+        System.out.println("  --espera-lote-ms=N          Espera a llenar el lote antes de enviarlo (defecto 0)");
+        System.out.println("  --quorum=N         Réplicas que confirman un mensaje antes de su acuse (defecto 0)");
+        System.out.println("  --quorum-ms=N      Plazo para reunir el quórum (defecto 2000)");
+        System.out.println("  --latido-ms=N      Latido entre réplicas (defecto 1000)");
+        System.out.println("  --phi-umbral=X     Sospecha a partir de la que una réplica se da por caída (defecto 8)");
+        System.out.println("  --baja-s=N         Segundos sin conectar con una réplica antes de darla de baja (defecto 30, 0 = nunca)");
+        System.out.println("  --anunciar=host:puerto      Dirección que se da a las demás réplicas (defecto localhost:puerto)");
+        System.out.println("  --desfase-replicas=N        Puerto de réplicas = puerto + N (defecto 1000, 0 = compartido)");
+        System.out.println("  --metricas=PUERTO  Sirve las métricas en 127.0.0.1:PUERTO (texto, o JSON con GET /json)");
+        System.out.println("  --backlog=N        Conexiones en espera de aceptar (defecto 1024, límite somaxconn)");
+        System.out.println("  --aceptadores=N    Hilos que aceptan clientes; con SO_REUSEPORT cada uno con su socket");
+        System.out.println("                     (otro proceso del mismo usuario podría compartir el puerto)");
+        System.out.println("  --limite-usuario=N Líneas por segundo de cada cliente (defecto 0, sin límite)");
+        System.out.println("  --rafaga-usuario=N Líneas seguidas que se admiten por encima del límite (defecto 20)");
+        System.out.println("  --limite-nodo=N    Líneas por segundo de todos los clientes juntos (defecto 0)");
+        System.out.println("  --rafaga-nodo=N    Ráfaga del límite del nodo (defecto 1000)");
+        System.out.println("  --exceso=retrasar|descartar|desconectar  Qué hacer con lo que pasa del límite");
+        System.out.println("  --sobrecarga-heap=PCT       Heap ocupado tras recolectar que activa la sobrecarga (defecto 0 = no)");
+        System.out.println("  --sobrecarga-hilos=N        Hilos vivos que activan la sobrecarga (defecto 0 = no)");
+        System.out.println("  --compresion=si|no Comprime lotes, sincronizaciones e historial si el otro lado lo admite");
+        System.out.println("  --compresion-umbral=N       Bytes a partir de los que se comprime un bloque (defecto 512)");
+        System.out.println("  --diccionario=ARCHIVO|no    Diccionario deflate con las réplicas (defecto: el de serie)");
+    }
+}
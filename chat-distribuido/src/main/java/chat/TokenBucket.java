@@ -0,0 +1,69 @@
+package chat;
+
+import java.util.concurrent.atomic.*;
+
+// Cubo de fichas con el estado en un solo instante: cuándo volvería a estar lleno
+// (GCRA). Admitir una línea es una lectura y un CAS, sin bloqueos ni objetos nuevos,
+// así que sirve igual para el cubo de una conexión que para el compartido del nodo
+public class TokenBucket {
+    // Qué se hace con una línea que llega sin ficha
+    enum Policy {
+        // Se deja de leer la conexión hasta que haya ficha: el cliente nota la espera en TCP
+        RETRASAR,
+        // Se descarta la línea y se avisa una vez por racha
+        DESCARTAR,
+        // Se cierra la conexión
+        DESCONECTAR;
+
+        static Policy parse(String value) {
+            try {
+                return valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Política de exceso inválida: " + value);
+            }
+        }
+    }
+
+    // Nanosegundos que tarda en reponerse una ficha y margen que da la ráfaga
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong full;
+
+    public TokenBucket(double perSecond, int burst) {
+        this.interval = Math.max(1, (long) (1e9 / perSecond));
+        this.tolerance = interval * burst;
+        this.full = new AtomicLong(System.nanoTime() - tolerance);
+    }
+
+    // Gasta una ficha si la hay
+    public boolean tryAcquire(long now) {
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (full.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Devuelve la ficha recién gastada con tryAcquire, p. ej. si otro cubo rechaza la línea.
+    // Solo si nadie más gasta de este cubo entre medias: el de una conexión, no el del nodo
+    public void release() {
+        full.addAndGet(-interval);
+    }
+
+    // Gasta la siguiente ficha aunque aún no exista: devuelve los nanosegundos que hay que
+    // esperar a que exista (0 = ya)
+    public long reserve(long now) {
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now) + interval;
+            if (full.compareAndSet(current, next)) {
+                return Math.max(0, next - now - tolerance);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package chat;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+// Acuses de réplicas que espera un mensaje antes de confirmarse a su autor. Se resuelve
+// una sola vez: al reunir los acuses necesarios o al vencer el plazo, lo que llegue antes
+public class WriteQuorum {
+    private final int required;
+    private final AtomicInteger acks = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final Consumer<WriteQuorum> onDone;
+    private volatile ScheduledFuture<?> timeout;
+
+    public WriteQuorum(int required, Consumer<WriteQuorum> onDone) {
+        this.required = required;
+        this.onDone = onDone;
+    }
+
+    public void expireAfter(ScheduledExecutorService timers, long millis) {
+        timeout = timers.schedule(this::expire, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public int required() {
+        return required;
+    }
+
+    public int acks() {
+        return acks.get();
+    }
+
+    public boolean reached() {
+        return acks.get() >= required;
+    }
+
+    // Lo llama el enlace que recibe el acuse del lote que llevaba el mensaje
+    public void ack() {
+        if (acks.incrementAndGet() >= required) {
+            finish();
+        }
+    }
+
+    public void expire() {
+        finish();
+    }
+
+    private void finish() {
+        if (done.compareAndSet(false, true)) {
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            onDone.accept(this);
+        }
+    }
+}
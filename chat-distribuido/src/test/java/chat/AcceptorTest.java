@@ -0,0 +1,112 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+// Varios aceptadores: con SO_REUSEPORT uno por socket en el mismo puerto, si no todos en uno
+class AcceptorTest {
+    private static final int ACCEPTORS = 4;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ChatServer server(int port, String... options) {
+        ServerConfig config = new ServerConfig();
+        config.apply("--aceptadores=" + ACCEPTORS);
+        for (String option : options) {
+            config.apply(option);
+        }
+        return new ChatServer(port, "Prueba", new ArrayList<>(), config);
+    }
+
+    @Test
+    void oneSocketPerAcceptorWhenTheSystemSharesThePort() throws IOException {
+        int port = freePort();
+        List<ServerSocket> sockets = server(port).listen();
+        try {
+            assertEquals(ChatServer.reusePortSupported() ? ACCEPTORS : 1, sockets.size());
+            for (ServerSocket socket : sockets) {
+                assertEquals(port, socket.getLocalPort());
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        List<ServerSocketChannel> channels = server(port).listenNio();
+        try {
+            assertEquals(ChatServer.reusePortSupported() ? ACCEPTORS : 1, channels.size());
+        } finally {
+            for (ServerSocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    void aSingleAcceptorDoesNotSetReusePort() throws IOException {
+        ServerConfig config = new ServerConfig();
+        List<ServerSocket> sockets = new ChatServer(freePort(), "Prueba", new ArrayList<>(), config).listen();
+        try {
+            assertEquals(1, sockets.size());
+            if (ChatServer.reusePortSupported()) {
+                assertFalse(sockets.get(0).getOption(StandardSocketOptions.SO_REUSEPORT));
+            }
+        } finally {
+            sockets.get(0).close();
+        }
+    }
+
+    // Una ráfaga de conexiones: todas reciben el saludo, las acepte quien las acepte
+    @ParameterizedTest
+    @ValueSource(strings = {"hilos", "nio"})
+    void everyConnectionInABurstIsGreeted(String io) throws Exception {
+        int port = freePort();
+        // Sin puerto de réplicas basta con un puerto libre; el saludo llega tras el plazo
+        ChatServer chat = server(port, "--io=" + io, "--desfase-replicas=0");
+        Thread thread = new Thread(chat::start, "servidor-prueba");
+        thread.setDaemon(true);
+        thread.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> greetings = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                greetings.add(clients.submit(() -> {
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (true) {
+                        try (Socket socket = new Socket("localhost", port)) {
+                            socket.setSoTimeout(5000);
+                            return new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                    StandardCharsets.UTF_8)).readLine();
+                        } catch (ConnectException e) {
+                            // Aún arrancando
+                            if (System.currentTimeMillis() > deadline) {
+                                throw e;
+                            }
+                            Thread.sleep(20);
+                        }
+                    }
+                }));
+            }
+            for (Future<String> greeting : greetings) {
+                assertEquals("SERVIDOR:Prueba", greeting.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+}
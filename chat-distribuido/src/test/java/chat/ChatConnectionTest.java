@@ -0,0 +1,321 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+class ChatConnectionTest {
+    private final List<FakeServer> servers = new ArrayList<>();
+    private final List<String> rejected = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    // Un oyente con fallos: lanza en cada llamada tras anotarla
+    private volatile boolean throwing;
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private final CompletableFuture<String> closed = new CompletableFuture<>();
+    private ChatConnection connection;
+
+    // Servidor de mentira: saluda como uno de verdad, anota lo que recibe y contesta lo que
+    // se le diga por la última conexión aceptada. Sin funciones saluda como uno antiguo
+    private static final class FakeServer implements Closeable {
+        final String name;
+        final String features;
+        final ServerSocket socket;
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        private volatile Socket client;
+
+        FakeServer(String name, int port, String features) throws IOException {
+            this.name = name;
+            this.features = features;
+            this.socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress("localhost", port));
+            Thread acceptor = new Thread(this::acceptLoop, "falso-" + name);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            try {
+                while (true) {
+                    Socket accepted = socket.accept();
+                    // Un accept en curso puede devolver una conexión después de cerrar
+                    if (socket.isClosed()) {
+                        accepted.close();
+                        return;
+                    }
+                    client = accepted;
+                    send("SERVIDOR:" + name);
+                    send("Ingresa tu nombre de usuario:");
+                    if (features != null) {
+                        send(ChatServer.FEATURES_PREFIX + features + " ---");
+                        sendHistory();
+                    }
+                    Thread reader = new Thread(() -> readLoop(accepted));
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (IOException e) {
+                // Cerrado
+            }
+        }
+
+        private void readLoop(Socket accepted) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    // Uno antiguo no espera a nada más que el nombre
+                    if (features == null && received.isEmpty()) {
+                        sendHistory();
+                    }
+                    received.add(line);
+                }
+            } catch (IOException e) {
+                // Cerrado
+            }
+        }
+
+        void sendHistory() throws IOException {
+            send("--- Historial de mensajes ---");
+            send(ChatConnection.HISTORY_END);
+        }
+
+        void send(String line) throws IOException {
+            OutputStream out = client.getOutputStream();
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String next() throws InterruptedException {
+            return received.poll(10, TimeUnit.SECONDS);
+        }
+
+        // Lo que llega tras el nombre de usuario
+        List<String> preamble() throws InterruptedException {
+            List<String> lines = new ArrayList<>();
+            String line;
+            do {
+                line = next();
+                assertNotNull(line, "sin nombre de usuario tras " + lines);
+                lines.add(line);
+            } while (!line.equals("ana"));
+            return lines;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            Socket current = client;
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+
+    private FakeServer server(String name, int port) throws IOException {
+        return server(name, port, "reanudar, acuses");
+    }
+
+    private FakeServer server(String name, int port, String features) throws IOException {
+        FakeServer server = new FakeServer(name, port, features);
+        servers.add(server);
+        return server;
+    }
+
+    // Puerto en el que no escucha nadie (hasta que un servidor lo ocupe)
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private ChatConnection connection(int... ports) {
+        List<ChatClient.ServerInfo> infos = new ArrayList<>();
+        for (int port : ports) {
+            infos.add(new ChatClient.ServerInfo("localhost", port));
+        }
+        connection = new ChatConnection(infos, "ana", new ChatConnection.Listener() {
+            @Override
+            public void onMessage(String line) {
+                messages.add(line);
+                fail();
+            }
+
+            @Override
+            public void onConnected(String serverName) {
+                fail();
+            }
+
+            @Override
+            public void onDisconnected(String serverName) {
+                disconnected.countDown();
+            }
+
+            @Override
+            public void onRejected(String line) {
+                rejected.add(line);
+            }
+
+            @Override
+            public void onClosed(String reason) {
+                closed.complete(reason);
+            }
+
+            private void fail() {
+                if (throwing) {
+                    throw new IllegalStateException("fallo del oyente");
+                }
+            }
+        });
+        return connection;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        for (FakeServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    void probingSkipsAServerThatIsDown() throws Exception {
+        int down = freePort();
+        FakeServer up = server("S2", 0);
+        connection(down, up.port()).connect().get(10, TimeUnit.SECONDS);
+        assertEquals("S2", connection.getCurrentServerName());
+        assertEquals(1, connection.getCurrentServerIndex());
+        assertEquals(List.of("/reanudar", "/acuses", "ana"), up.preamble());
+    }
+
+    @Test
+    void anOldServerGetsOnlyTheName() throws Exception {
+        FakeServer old = server("S1", 0, null);
+        connection(old.port()).connect().get(10, TimeUnit.SECONDS);
+        assertEquals("S1", connection.getCurrentServerName());
+        assertEquals(List.of("ana"), old.preamble());
+        connection.send("hola");
+        assertEquals("hola", old.next());
+    }
+
+    @Test
+    void queuedSendsAreFlushedOnceAnotherServerAnswers() throws Exception {
+        FakeServer first = server("S1", 0);
+        int secondPort = freePort();
+        connection(first.port(), secondPort).connect().get(10, TimeUnit.SECONDS);
+        first.preamble();
+
+        first.close();
+        assertTrue(disconnected.await(10, TimeUnit.SECONDS));
+        // Ningún servidor responde: se sigue intentando y lo enviado espera en la cola
+        assertTrue(connection.send("hola"));
+        assertFalse(connection.isConnected());
+
+        FakeServer second = server("S2", secondPort);
+        assertEquals(List.of("/reanudar", "/acuses", "ana"), second.preamble());
+        assertEquals("#1 hola", second.next());
+        assertEquals("S2", connection.getCurrentServerName());
+    }
+
+    @Test
+    void acksMatchTheirLineAndOnlyUnconfirmedLinesAreResent() throws Exception {
+        FakeServer first = server("S1", 0);
+        int secondPort = freePort();
+        connection(first.port(), secondPort).connect().get(10, TimeUnit.SECONDS);
+        first.preamble();
+
+        connection.send("a");
+        connection.send("b");
+        connection.send("c");
+        connection.send("/salas");
+        assertEquals("#1 a", first.next());
+        assertEquals("#2 b", first.next());
+        assertEquals("#3 c", first.next());
+        // Las órdenes no se numeran ni esperan acuse
+        assertEquals("/salas", first.next());
+
+        // Fuera de orden: se confirma b y se descarta c, de a no llega nada
+        first.send("ACUSE:2 S1~1:7");
+        first.send("RECHAZO:3");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (rejected.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("c"), rejected);
+
+        first.close();
+        FakeServer second = server("S2", secondPort);
+        // Reanuda desde el id confirmado y reenvía solo a
+        assertEquals(List.of("/reanudar S1~1=7", "/acuses", "ana"), second.preamble());
+        assertEquals("#4 a", second.next());
+        assertNull(second.received.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void resumeAsksFromTheLastUnbrokenSeqAndSkipsRepeats() throws Exception {
+        FakeServer first = server("S1", 0);
+        int secondPort = freePort();
+        connection(first.port(), secondPort).connect().get(10, TimeUnit.SECONDS);
+        first.preamble();
+
+        // El 2 va por otra réplica y aún no ha llegado cuando llega el 3
+        first.send("#A~1:1 bea: uno");
+        first.send("#A~1:3 bea: tres");
+        assertEquals("bea: tres", lastMessage("bea: tres"));
+
+        first.close();
+        FakeServer second = server("S2", secondPort);
+        assertEquals(List.of("/reanudar A~1=1", "/acuses", "ana"), second.preamble());
+        second.send(ChatConnection.RESUME_PREFIX + "2 mensajes pendientes ---");
+        second.send("#A~1:2 bea: dos");
+        second.send("#A~1:3 bea: tres");
+        second.send("#A~1:4 bea: cuatro");
+        assertEquals("bea: dos", lastMessage("bea: dos"));
+        // El 3 ya se había visto: del bloque solo sale el 2
+        assertEquals("bea: cuatro", messages.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aListenerThatThrowsDoesNotStopTheConnection() throws Exception {
+        throwing = true;
+        FakeServer server = server("S1", 0);
+        connection(server.port()).connect().get(10, TimeUnit.SECONDS);
+        server.preamble();
+
+        server.send("bea: hola");
+        assertTrue(messages.contains(ChatConnection.HISTORY_END));
+        assertEquals("bea: hola", lastMessage("bea: hola"));
+        connection.send("adiós");
+        assertEquals("#1 adiós", server.next());
+        assertTrue(connection.isConnected());
+        assertEquals(1, disconnected.getCount());
+    }
+
+    // Espera a que llegue line y la devuelve
+    private String lastMessage(String line) throws InterruptedException {
+        String message;
+        do {
+            message = messages.poll(10, TimeUnit.SECONDS);
+        } while (message != null && !message.equals(line));
+        return message;
+    }
+
+    @Test
+    void aRoundLimitClosesTheConnection() throws Exception {
+        CompletableFuture<Void> ready = connection(freePort()).setMaxRounds(1).connect();
+        assertEquals("ningún servidor responde", closed.get(10, TimeUnit.SECONDS));
+        assertTrue(ready.isCompletedExceptionally());
+        assertFalse(connection.send("tarde"));
+    }
+}
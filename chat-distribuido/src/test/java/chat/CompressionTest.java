@@ -0,0 +1,157 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class CompressionTest {
+    private final Metrics metrics = new Metrics("Prueba");
+
+    private static List<byte[]> frames(int count, int from) {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            ChatMessage message = new ChatMessage("A~1", i, "usuario" + (i % 10) + ": hola, ¿qué tal? mensaje " + i);
+            frames.add(new PeerFrame(PeerFrame.REPLICATE, message).bytes(true));
+        }
+        return frames;
+    }
+
+    // Lo que se escribe en el enlace, trama a trama como lo lee la otra réplica
+    private static List<byte[]> split(byte[] written) {
+        List<byte[]> result = new ArrayList<>();
+        int pos = 0;
+        while (pos < written.length) {
+            int length = ((written[pos] & 0xff) << 24) | ((written[pos + 1] & 0xff) << 16)
+                    | ((written[pos + 2] & 0xff) << 8) | (written[pos + 3] & 0xff);
+            result.add(Arrays.copyOfRange(written, pos, pos + 4 + length));
+            pos += 4 + length;
+        }
+        return result;
+    }
+
+    // Descomprime las tramas DEFLATED y deja las demás como llegaron
+    private static List<byte[]> receive(Compression.Input input, byte[] written) throws IOException {
+        List<byte[]> received = new ArrayList<>();
+        for (byte[] frame : split(written)) {
+            if (frame[4] != PeerFrame.DEFLATED) {
+                received.add(frame);
+                continue;
+            }
+            input.inflate(frame, 5, frame.length - 5, (data, offset, length) -> {
+                byte[] inner = new byte[4 + length];
+                inner[0] = (byte) (length >>> 24);
+                inner[1] = (byte) (length >>> 16);
+                inner[2] = (byte) (length >>> 8);
+                inner[3] = (byte) length;
+                System.arraycopy(data, offset, inner, 4, length);
+                received.add(inner);
+            });
+        }
+        return received;
+    }
+
+    private static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private void roundTrip(byte[] dictionary) throws IOException {
+        Compression.Output output = new Compression.Output(dictionary, 512, metrics);
+        Compression.Input input = new Compression.Input(dictionary);
+        try {
+            // Dos bloques del mismo flujo: el segundo se apoya en lo que ya envió el primero
+            for (int from : new int[] {1, 101}) {
+                List<byte[]> frames = frames(100, from);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (byte[] frame : frames) {
+                    output.add(frame, out);
+                }
+                output.flush(out);
+                byte[] written = out.toByteArray();
+                assertEquals(1, split(written).size());
+                assertEquals(PeerFrame.DEFLATED, written[4]);
+                assertFrames(frames, receive(input, written));
+            }
+        } finally {
+            output.end();
+            input.end();
+        }
+    }
+
+    @Test
+    void blocksRoundTripWithTheDictionary() throws IOException {
+        roundTrip(Compression.CHAT_DICTIONARY);
+    }
+
+    @Test
+    void blocksRoundTripWithoutDictionary() throws IOException {
+        roundTrip(null);
+    }
+
+    @Test
+    void smallBlocksAreWrittenAsTheyAre() throws IOException {
+        Compression.Output output = new Compression.Output(Compression.CHAT_DICTIONARY, 512, metrics);
+        try {
+            List<byte[]> frames = frames(1, 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            output.add(frames.get(0), out);
+            output.flush(out);
+            assertArrayEquals(frames.get(0), out.toByteArray());
+        } finally {
+            output.end();
+        }
+    }
+
+    @Test
+    void differentDictionaryIsRejected() throws IOException {
+        Compression.Output output = new Compression.Output(Compression.CHAT_DICTIONARY, 512, metrics);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames(100, 1)) {
+            output.add(frame, out);
+        }
+        output.flush(out);
+        output.end();
+        byte[] written = out.toByteArray();
+
+        byte[] other = "otro diccionario".getBytes(StandardCharsets.UTF_8);
+        for (byte[] dictionary : Arrays.asList(null, other)) {
+            Compression.Input input = new Compression.Input(dictionary);
+            try {
+                assertThrows(IOException.class, () -> receive(input, written));
+            } finally {
+                input.end();
+            }
+        }
+        assertEquals(Compression.CHAT_DICTIONARY, Compression.agreed(Compression.CHAT_DICTIONARY,
+                Compression.token(Compression.CHAT_DICTIONARY)));
+        assertNull(Compression.agreed(Compression.CHAT_DICTIONARY, Compression.token(other)));
+    }
+
+    @Test
+    void clientLinesRoundTrip() throws IOException {
+        StringBuilder block = new StringBuilder("--- Historial de mensajes ---");
+        for (int i = 1; i <= 50; i++) {
+            block.append("\nusuario").append(i % 5).append(": hola, ¿qué tal? mensaje ").append(i);
+        }
+        block.append("\n--- Fin del historial ---");
+
+        String line = Compression.line(block.toString(), 512, metrics);
+        assertTrue(line.startsWith(Compression.LINE_PREFIX));
+        assertFalse(line.contains("\n"));
+        assertArrayEquals(block.toString().split("\n", -1), Compression.lines(line));
+
+        String small = "--- Sala actual: general ---";
+        assertSame(small, Compression.line(small, 512, metrics));
+    }
+
+    @Test
+    void invalidClientLineIsRejected() {
+        assertThrows(IOException.class, () -> Compression.lines(Compression.LINE_PREFIX + "no es base64!"));
+        assertThrows(IOException.class, () -> Compression.lines(Compression.LINE_PREFIX + "AAAA"));
+    }
+}
@@ -0,0 +1,66 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class FailureDetectorTest {
+
+    @Test
+    void phiGrowsWithSilence() {
+        FailureDetector detector = new FailureDetector(100);
+        detector.reset(0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 100;
+            detector.heartbeat(now);
+        }
+        double previous = detector.phi(now);
+        for (long silence = 50; silence <= 1000; silence += 50) {
+            double phi = detector.phi(now + silence);
+            assertTrue(phi >= previous, "phi baja a los " + silence + " ms");
+            previous = phi;
+        }
+        // Un latido a tiempo no alarma; diez intervalos de silencio superan el umbral por defecto
+        assertTrue(detector.phi(now + 100) < 1);
+        assertTrue(detector.phi(now + 1000) > 8);
+        assertEquals(1000, detector.silenceMillis(now + 1000));
+    }
+
+    @Test
+    void irregularHeartbeatsTolerateLongerSilence() {
+        FailureDetector regular = new FailureDetector(100);
+        FailureDetector irregular = new FailureDetector(100);
+        regular.reset(0);
+        irregular.reset(0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 100;
+            regular.heartbeat(now);
+            irregular.heartbeat(now + (i % 2 == 0 ? 150 : -50));
+        }
+        assertTrue(irregular.phi(now + 400) < regular.phi(now + 400));
+    }
+
+    @Test
+    void trafficFasterThanThePingDoesNotLowerTheExpectedInterval() {
+        FailureDetector detector = new FailureDetector(100);
+        detector.reset(0);
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            now += 1;
+            detector.heartbeat(now);
+        }
+        // Con tramas cada milisegundo una pausa de 50 ms no es una caída
+        assertTrue(detector.phi(now + 50) < 1);
+    }
+
+    @Test
+    void resetForgetsThePreviousLink() {
+        FailureDetector detector = new FailureDetector(100);
+        detector.reset(0);
+        assertTrue(detector.phi(5000) > 8);
+        detector.reset(5000);
+        assertTrue(detector.phi(5050) < 1);
+    }
+}
@@ -0,0 +1,103 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class HistoryStoreTest {
+    // Marca fija: el orden del historial es el de seq, no el de cuándo se crea cada mensaje
+    private static final long BASE = HybridClock.fromMillis(System.currentTimeMillis());
+
+    private static ChatMessage message(long seq) {
+        return new ChatMessage("A~1", seq, ChatMessage.GENERAL, "m" + seq, BASE + seq);
+    }
+
+    private static List<Long> seqs(List<ChatMessage> messages) {
+        List<Long> result = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            result.add(message.seq);
+        }
+        return result;
+    }
+
+    private static List<Long> all(HistoryStore history) {
+        List<ChatMessage> messages = new ArrayList<>();
+        history.forEach(messages::add);
+        return seqs(messages);
+    }
+
+    @Test
+    void rejectsDuplicates() {
+        HistoryStore history = new HistoryStore(10, 0);
+        assertTrue(history.add(message(1)));
+        assertFalse(history.add(message(1)));
+        assertEquals(1, history.size());
+        assertTrue(history.contains("A~1:1"));
+    }
+
+    @Test
+    void evictsTheOldestWhenFull() {
+        HistoryStore history = new HistoryStore(3, 0);
+        for (long seq = 1; seq <= 5; seq++) {
+            assertTrue(history.add(message(seq)));
+        }
+        assertEquals(3, history.size());
+        assertEquals(List.of(3L, 4L, 5L), all(history));
+        assertFalse(history.contains("A~1:1"));
+        // Desalojado pero ya visto: no vuelve a entrar
+        assertFalse(history.add(message(1)));
+    }
+
+    @Test
+    void lateMessageThatDoesNotFitIsRejected() {
+        HistoryStore history = new HistoryStore(2, 0);
+        history.add(message(2));
+        history.add(message(3));
+        // Ordena antes que todo lo que hay: entra y sale en el acto
+        assertFalse(history.add(message(1)));
+        assertFalse(history.contains("A~1:1"));
+        assertEquals(List.of(2L, 3L), all(history));
+        assertFalse(history.add(message(1)));
+        assertTrue(history.add(message(4)));
+    }
+
+    @Test
+    void evictedAboveAGapIsNotAcceptedAgain() {
+        HistoryStore history = new HistoryStore(2, 0);
+        history.add(message(1));
+        // Falta el 2: la marca se queda en 1 y lo desalojado queda por encima
+        for (long seq = 3; seq <= 5; seq++) {
+            history.add(message(seq));
+        }
+        assertFalse(history.contains("A~1:3"));
+        assertFalse(history.add(message(3)));
+        assertEquals(List.of(4L, 5L), all(history));
+    }
+
+    @Test
+    void pagesWalkBackwardsWithTheCursor() {
+        HistoryStore history = new HistoryStore(100, 0);
+        for (long seq = 1; seq <= 7; seq++) {
+            history.add(message(seq));
+        }
+        HistoryStore.Page last = history.page(null, 3);
+        assertEquals(List.of(5L, 6L, 7L), seqs(last.messages));
+        assertTrue(last.hasOlder);
+
+        HistoryStore.Page previous = history.page(last.cursor, 3);
+        assertEquals(List.of(2L, 3L, 4L), seqs(previous.messages));
+        assertTrue(previous.hasOlder);
+
+        HistoryStore.Page first = history.page(previous.cursor, 3);
+        assertEquals(List.of(1L), seqs(first.messages));
+        assertFalse(first.hasOlder);
+    }
+
+    @Test
+    void rejectsInvalidCursors() {
+        HistoryStore history = new HistoryStore(10, 0);
+        assertThrows(IllegalArgumentException.class, () -> history.page("basura", 5));
+        assertThrows(IllegalArgumentException.class, () -> history.page("1:A~1:x", 5));
+    }
+}
@@ -0,0 +1,74 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.*;
+
+class HybridClockTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private final AtomicLong wall = new AtomicLong(START);
+    private final HybridClock clock = new HybridClock(wall::get);
+
+    @Test
+    void followsTheWallClock() {
+        assertEquals(HybridClock.fromMillis(START), clock.now());
+        wall.set(START + 5);
+        assertEquals(HybridClock.fromMillis(START + 5), clock.now());
+    }
+
+    @Test
+    void doesNotGoBackWhenTheWallClockDoes() {
+        long before = clock.now();
+        wall.set(START - 10_000);
+        long after = clock.now();
+        assertTrue(after > before);
+        // Se queda en el milisegundo alcanzado y avanza el contador
+        assertEquals(START, HybridClock.millis(after));
+        assertEquals(before + 1, after);
+
+        // Al volver la hora de pared por delante, se sigue otra vez
+        wall.set(START + 1);
+        assertEquals(HybridClock.fromMillis(START + 1), clock.now());
+    }
+
+    @Test
+    void staysAheadOfAnObservedStamp() {
+        clock.now();
+        long remote = HybridClock.fromMillis(START + 1_000) + 7;
+        assertTrue(clock.observe(remote));
+        long next = clock.now();
+        assertTrue(next > remote);
+        assertEquals(remote + 1, next);
+        // Una marca remota por detrás no cambia nada
+        assertTrue(clock.observe(HybridClock.fromMillis(START - 1)));
+        assertEquals(next + 1, clock.now());
+    }
+
+    @Test
+    void stampsTooFarAheadAreNotFollowed() {
+        long before = clock.now();
+        long remote = HybridClock.fromMillis(START + HybridClock.MAX_DRIFT_MILLIS + 1);
+        assertFalse(clock.observe(remote));
+        assertEquals(before + 1, clock.now());
+        assertTrue(clock.observe(HybridClock.fromMillis(START + HybridClock.MAX_DRIFT_MILLIS)));
+    }
+
+    @Test
+    void logicalCounterOverflowsIntoTheMillis() {
+        long previous = clock.now();
+        // Con la hora parada, el contador se agota y la marca pasa al milisegundo siguiente
+        for (int i = 1; i <= 1 << HybridClock.LOGICAL_BITS; i++) {
+            long next = clock.now();
+            assertTrue(next > previous);
+            previous = next;
+        }
+        assertEquals(START + 1, HybridClock.millis(previous));
+        assertEquals(0, previous & ((1L << HybridClock.LOGICAL_BITS) - 1));
+
+        // La hora de pared que alcanza ese milisegundo no hace retroceder
+        wall.set(START + 1);
+        assertEquals(previous + 1, clock.now());
+    }
+}
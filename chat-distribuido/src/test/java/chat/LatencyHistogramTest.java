@@ -0,0 +1,50 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void everyValueFallsInABucketThatCoversIt() {
+        long previous = -1;
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKETS, "cubeta de " + value);
+            assertTrue(LatencyHistogram.highest(index) >= value, "techo de " + value);
+            assertTrue(index == 0 || LatencyHistogram.highest(index - 1) < value, "cubeta anterior de " + value);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    void percentilesStayWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000_000, histogram.max());
+        assertEquals(5_000_500, histogram.mean(), 1);
+        // Una cubeta abarca como mucho 1/HALF de su valor
+        double error = 1 + 1.0 / LatencyHistogram.HALF;
+        long p50 = histogram.percentile(0.5);
+        long p99 = histogram.percentile(0.99);
+        assertTrue(p50 >= 5_000_000 && p50 <= 5_000_000 * error, "p50 " + p50);
+        assertTrue(p99 >= 9_900_000 && p99 <= 9_900_000 * error, "p99 " + p99);
+        // Nunca por encima del máximo registrado
+        assertEquals(10_000_000, histogram.percentile(1.0));
+    }
+
+    @Test
+    void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.99));
+        assertEquals(0, histogram.mean());
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.max());
+    }
+}
@@ -0,0 +1,59 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import org.junit.jupiter.api.*;
+
+class LineReaderTest {
+
+    private static LineReader reader(String text, int maxLine) {
+        return new LineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, maxLine);
+    }
+
+    // Entrega de a un byte: las líneas quedan partidas entre lecturas
+    private static LineReader trickle(String text, int maxLine) {
+        InputStream in = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        return new LineReader(in, StandardCharsets.UTF_8, maxLine);
+    }
+
+    @Test
+    void splitsLinesAndStripsCarriageReturns() throws IOException {
+        for (LineReader in : new LineReader[] {reader("hola\r\nqué tal\n\nfin", 64), trickle("hola\r\nqué tal\n\nfin", 64)}) {
+            assertEquals("hola", in.readLine());
+            assertEquals("qué tal", in.readLine());
+            assertEquals("", in.readLine());
+            // La última sin salto también se entrega
+            assertEquals("fin", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    void growsUpToTheLimitAndNoFurther() throws IOException {
+        String longest = "x".repeat(20_000 - 1);
+        LineReader in = reader(longest + "\nok\n", 20_000);
+        assertEquals(longest, in.readLine());
+        assertEquals("ok", in.readLine());
+
+        LineReader tooLong = reader("x".repeat(20_000) + "\n", 20_000);
+        assertThrows(IOException.class, tooLong::readLine);
+    }
+
+    @Test
+    void remainingStartsWithWhatWasBuffered() throws IOException {
+        byte[] data = {'B', 'I', 'N', 'A', 'R', 'I', 'O', '\n', 0, 0, 0, 1, 7};
+        LineReader in = new LineReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8, 64);
+        assertEquals("BINARIO", in.readLine());
+        DataInputStream rest = new DataInputStream(in.remaining());
+        assertEquals(1, rest.readInt());
+        assertEquals(7, rest.read());
+        assertEquals(-1, rest.read());
+    }
+}
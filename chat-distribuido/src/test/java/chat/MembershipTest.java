@@ -0,0 +1,69 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class MembershipTest {
+    private static List<String> addresses(List<Membership.Member> members) {
+        List<String> result = new ArrayList<>();
+        for (Membership.Member member : members) {
+            result.add(member.address);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    void removedMemberIsSpreadAndThenForgotten() {
+        Membership membership = new Membership("A", "a:1", 100);
+        membership.merge("B=b:1@200,C=c:1@300", 0);
+        assertTrue(membership.remove("b:1", 1000));
+        assertFalse(membership.remove("b:1", 2000));
+        assertEquals(List.of("c:1"), addresses(membership.alive()));
+        assertTrue(membership.encode().contains("B=b:1@200-"));
+
+        // Un anuncio viejo que siga circulando no lo resucita
+        assertTrue(membership.merge("B=b:1@200", 2000).isEmpty());
+        assertEquals(0, membership.expire(1000 + Membership.TOMBSTONE_MILLIS - 1));
+        assertEquals(1, membership.expire(1000 + Membership.TOMBSTONE_MILLIS));
+        assertFalse(membership.encode().contains("b:1"));
+    }
+
+    @Test
+    void restartedMemberComesBack() {
+        Membership membership = new Membership("A", "a:1", 100);
+        membership.merge("B=b:1@200", 0);
+        membership.merge("B=b:1@200-", 0);
+        assertTrue(membership.alive().isEmpty());
+
+        List<Membership.Member> changed = membership.merge("B=b:1@500", 0);
+        assertEquals(List.of("b:1"), addresses(changed));
+        assertEquals(List.of("b:1"), addresses(membership.alive()));
+    }
+
+    @Test
+    void wrongRemovalOfSelfIsRefuted() {
+        Membership membership = new Membership("A", "a:1", 100);
+        membership.merge("A=a:1@100-", 0);
+        assertTrue(membership.encode().startsWith("A=a:1@101"));
+
+        // Quien lo tenía de baja lo revive con la nueva encarnación
+        Membership other = new Membership("B", "b:1", 200);
+        other.merge("A=a:1@100-", 0);
+        assertEquals(List.of("a:1"), addresses(other.merge(membership.encode(), 0)));
+    }
+
+    @Test
+    void entriesWithoutAValidAddressAreSkipped() {
+        List<Membership.Member> parsed = Membership.parse(
+                "B=b@1,C=c:abc@1,D=d:70000@1,E=:5@1,F=f:1:2@1,G=g:5@2,H=h:0@1");
+        assertEquals(List.of("g:5"), addresses(parsed));
+
+        // No se guardan ni se difunden
+        Membership membership = new Membership("A", "a:1", 100);
+        assertEquals(List.of("g:5"), addresses(membership.merge("B=b@1,G=g:5@2", 0)));
+        assertFalse(membership.encode().contains("B="));
+    }
+}
@@ -0,0 +1,246 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+class MessageLogTest {
+    @TempDir
+    Path dir;
+
+    // Lo que entrega la recuperación
+    private static final class Recovered implements MessageLog.RecoveryListener {
+        final List<ChatMessage> messages = new ArrayList<>();
+        final List<String> skipped = new ArrayList<>();
+        final Map<String, Long> truncated = new HashMap<>();
+        long count;
+
+        @Override
+        public void onRecovered(ChatMessage message, long acceptedAt) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onSkipped(String origin, long seq) {
+            skipped.add(origin + ":" + seq);
+        }
+
+        @Override
+        public void onTruncated(String origin, long seq) {
+            truncated.put(origin, seq);
+        }
+
+        List<String> ids() {
+            List<String> ids = new ArrayList<>();
+            for (ChatMessage message : messages) {
+                ids.add(message.id());
+            }
+            return ids;
+        }
+    }
+
+    private static ChatMessage message(long seq, String room) {
+        return new ChatMessage("A~1", seq, room, "usuario: mensaje " + seq + " con tildes ñ á", HybridClock.fromMillis(1000 + seq));
+    }
+
+    private MessageLog open(long segmentBytes, int maxSegments) throws IOException {
+        MessageLog log = new MessageLog(dir, segmentBytes, maxSegments);
+        log.recover(new Recovered(), 100);
+        log.start("registro-prueba");
+        return log;
+    }
+
+    private Recovered recover(int keepPerRoom) throws IOException {
+        Recovered recovered = new Recovered();
+        recovered.count = new MessageLog(dir, MessageLog.DEFAULT_SEGMENT_BYTES, 0).recover(recovered, keepPerRoom);
+        return recovered;
+    }
+
+    private static void awaitDurable(MessageLog log) throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        log.afterDurable(written::countDown);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segmento-*.log")) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    @Test
+    void recoversWhatWasAppended() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.append(message(1, ChatMessage.GENERAL), 10);
+        log.append(message(2, "sala"), 20);
+        log.append(message(3, ChatMessage.GENERAL), 30);
+        log.close(5000);
+
+        Recovered recovered = recover(100);
+        assertEquals(3, recovered.count);
+        assertEquals(List.of("A~1:1", "A~1:2", "A~1:3"), recovered.ids());
+        ChatMessage second = recovered.messages.get(1);
+        assertEquals("sala", second.room);
+        assertEquals(message(2, "sala").text, second.text);
+        assertEquals(message(2, "sala").hlc, second.hlc);
+        assertEquals(ChatMessage.GENERAL, recovered.messages.get(0).room);
+    }
+
+    @Test
+    void afterDurableRunsOnceEverythingBeforeIsWritten() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        for (long seq = 1; seq <= 100; seq++) {
+            log.append(message(seq, ChatMessage.GENERAL), seq);
+        }
+        long[] pending = {-1};
+        CountDownLatch written = new CountDownLatch(1);
+        log.afterDurable(() -> {
+            pending[0] = log.pending();
+            written.countDown();
+        });
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pending[0]);
+        log.close(5000);
+        assertEquals(100, recover(1000).count);
+    }
+
+    @Test
+    void appendCallbackRunsOnceTheMessageIsWritten() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        List<Long> pending = new ArrayList<>();
+        CountDownLatch written = new CountDownLatch(2);
+        for (long seq = 1; seq <= 2; seq++) {
+            log.append(message(seq, ChatMessage.GENERAL), seq, () -> {
+                pending.add(log.pending());
+                written.countDown();
+            });
+        }
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        // El segundo puede ir aún en la cola cuando se ejecuta el primero, nunca al revés
+        assertTrue(pending.get(0) <= 1);
+        assertEquals(0, pending.get(1));
+        log.close(5000);
+        assertEquals(List.of("A~1:1", "A~1:2"), recover(100).ids());
+    }
+
+    @Test
+    void appendDoesNotBlockWhenTheQueueIsFull() throws Exception {
+        MessageLog log = new MessageLog(dir, MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.recover(new Recovered(), 100);
+        // Sin hilo escritor la cola no se vacía
+        for (long seq = 1; seq <= MessageLog.QUEUE_CAPACITY; seq++) {
+            assertTrue(log.append(message(seq, ChatMessage.GENERAL), seq));
+        }
+        assertFalse(log.append(message(MessageLog.QUEUE_CAPACITY + 1, ChatMessage.GENERAL), 0));
+        assertFalse(log.afterDurable(() -> { }));
+        assertEquals(MessageLog.QUEUE_CAPACITY, log.pending());
+
+        // Cuando el disco se pone al día vuelve a admitir
+        log.start("registro-prueba");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (log.pending() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(log.append(message(MessageLog.QUEUE_CAPACITY + 1, ChatMessage.GENERAL), 0));
+        log.close(5000);
+        assertEquals(MessageLog.QUEUE_CAPACITY + 1, recover(100_000).count);
+    }
+
+    @Test
+    void closeWritesWhatIsQueued() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        for (long seq = 1; seq <= 5000; seq++) {
+            log.append(message(seq, ChatMessage.GENERAL), seq);
+        }
+        log.close(5000);
+        assertEquals(0, log.pending());
+        assertEquals(5000, recover(10).count);
+    }
+
+    @Test
+    void tornTailIsDiscarded() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.append(message(1, ChatMessage.GENERAL), 10);
+        log.append(message(2, ChatMessage.GENERAL), 20);
+        log.close(5000);
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        // Un registro que se quedó a medias: longitud y CRC, sin el resto
+        Files.write(segment, ByteBuffer.allocate(10).putInt(500).putInt(123).array(), StandardOpenOption.APPEND);
+
+        Recovered recovered = recover(100);
+        assertEquals(List.of("A~1:1", "A~1:2"), recovered.ids());
+        assertEquals(size, Files.size(segment));
+
+        // Se sigue añadiendo detrás de lo válido
+        log = new MessageLog(dir, MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.recover(new Recovered(), 100);
+        log.start("registro-prueba");
+        log.append(message(3, ChatMessage.GENERAL), 30);
+        log.close(5000);
+        assertEquals(List.of("A~1:1", "A~1:2", "A~1:3"), recover(100).ids());
+    }
+
+    @Test
+    void corruptRecordEndsTheSegment() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        log.append(message(1, ChatMessage.GENERAL), 10);
+        awaitDurable(log);
+        Path segment = segments().get(0);
+        long first = Files.size(segment);
+        log.append(message(2, ChatMessage.GENERAL), 20);
+        log.close(5000);
+
+        // Un byte cambiado en el texto del segundo registro: no cuadra el CRC
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'#'}), first + 40);
+        }
+        Recovered recovered = recover(100);
+        assertEquals(List.of("A~1:1"), recovered.ids());
+        assertEquals(first, Files.size(segment));
+    }
+
+    @Test
+    void rollsAndDeletesOldSegments() throws Exception {
+        MessageLog log = open(200, 2);
+        for (long seq = 1; seq <= 10; seq++) {
+            log.append(message(seq, ChatMessage.GENERAL), seq);
+            // Un lote por mensaje: cada uno pasa del tamaño y abre segmento
+            awaitDurable(log);
+        }
+        log.close(5000);
+
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        Recovered recovered = recover(100);
+        assertTrue(recovered.count < 10);
+        assertEquals(Map.of("A~1", recovered.messages.get(0).seq), recovered.truncated);
+        assertEquals("A~1:10", recovered.messages.get(recovered.messages.size() - 1).id());
+    }
+
+    @Test
+    void keepsTheLastMessagesOfEachRoom() throws Exception {
+        MessageLog log = open(MessageLog.DEFAULT_SEGMENT_BYTES, 0);
+        for (long seq = 1; seq <= 10; seq++) {
+            log.append(message(seq, seq % 2 == 0 ? "sala" : ChatMessage.GENERAL), seq);
+        }
+        log.close(5000);
+
+        Recovered recovered = recover(2);
+        assertEquals(10, recovered.count);
+        // Los dos últimos de cada sala, en el orden del registro
+        assertEquals(List.of("A~1:7", "A~1:8", "A~1:9", "A~1:10"), recovered.ids());
+        assertEquals(List.of("A~1:1", "A~1:2", "A~1:3", "A~1:4", "A~1:5", "A~1:6"), recovered.skipped);
+        assertTrue(recovered.truncated.isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class MetricsTest {
+    private final Metrics metrics = new Metrics("Prueba");
+
+    @Test
+    void jmxReadsTheLastSampleUntilTheNextOne() throws Exception {
+        metrics.messages.add(3);
+        assertEquals(3L, metrics.getAttribute("mensajes"));
+        metrics.messages.add(2);
+        // El puerto de métricas lee al momento; JMX espera a la siguiente muestra
+        assertEquals(5L, metrics.snapshot().get("mensajes"));
+        assertEquals(3L, metrics.getAttribute("mensajes"));
+        metrics.sample();
+        assertEquals(5L, metrics.getAttribute("mensajes"));
+    }
+
+    @Test
+    void readingDoesNotMoveTheRate() throws Exception {
+        metrics.sample();
+        metrics.messages.add(1000);
+        Thread.sleep(20);
+        // Consultar no toma muestra: la tasa sigue siendo la de antes
+        metrics.text();
+        metrics.getMBeanInfo();
+        assertEquals(0.0, metrics.snapshot().get("mensajes_por_s"));
+        metrics.sample();
+        assertTrue(metrics.snapshot().get("mensajes_por_s").doubleValue() > 0);
+    }
+
+    @Test
+    void everyValueIsAnAttribute() throws Exception {
+        for (var attribute : metrics.getMBeanInfo().getAttributes()) {
+            assertNotNull(metrics.getAttribute(attribute.getName()));
+        }
+        assertThrows(javax.management.AttributeNotFoundException.class, () -> metrics.getAttribute("no_existe"));
+    }
+}
@@ -0,0 +1,112 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+class NioReactorTest {
+    private final NioReactor reactor;
+    private final ServerSocketChannel server;
+    private final List<Socket> clients = new ArrayList<>();
+
+    NioReactorTest() throws IOException {
+        reactor = new NioReactor();
+        Thread thread = new Thread(reactor, "reactor-prueba");
+        thread.setDaemon(true);
+        thread.start();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    // Lo que entrega el reactor a un canal; lanza al recibir "falla"
+    private static final class Recorder implements NioReactor.Listener {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void onOpen() {
+        }
+
+        @Override
+        public void onLine(String line) {
+            if (line.equals("falla")) {
+                throw new IllegalStateException("fallo del oyente");
+            }
+            lines.add(line);
+        }
+
+        @Override
+        public void onClose() {
+            closed.countDown();
+        }
+    }
+
+    // Conecta un cliente y registra su otro extremo en el reactor
+    private Socket connect(Recorder recorder) throws IOException {
+        Socket client = new Socket("localhost", server.socket().getLocalPort());
+        clients.add(client);
+        reactor.register(server.accept(), channel -> recorder);
+        return client;
+    }
+
+    private static void write(Socket client, String text) throws IOException {
+        client.getOutputStream().write(text.getBytes(StandardCharsets.UTF_8));
+        client.getOutputStream().flush();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void deliversLinesSplitAcrossReads() throws Exception {
+        Recorder recorder = new Recorder();
+        Socket client = connect(recorder);
+        write(client, "hola\r\nqué ");
+        write(client, "tal\n");
+        assertEquals("hola", recorder.lines.poll(5, TimeUnit.SECONDS));
+        assertEquals("qué tal", recorder.lines.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aFailingListenerClosesOnlyItsChannel() throws Exception {
+        Recorder failing = new Recorder();
+        Recorder healthy = new Recorder();
+        Socket bad = connect(failing);
+        Socket good = connect(healthy);
+
+        write(bad, "falla\n");
+        assertTrue(failing.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(-1, bad.getInputStream().read());
+
+        // El reactor sigue atendiendo a los demás canales
+        write(good, "sigo aquí\n");
+        assertEquals("sigo aquí", healthy.lines.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, healthy.closed.getCount());
+    }
+
+    @Test
+    void aLineLongerThanTheLimitClosesTheChannel() throws Exception {
+        Recorder recorder = new Recorder();
+        Socket client = connect(recorder);
+        byte[] line = new byte[NioReactor.MAX_LINE + 1];
+        Arrays.fill(line, (byte) 'a');
+        try {
+            client.getOutputStream().write(line);
+        } catch (IOException e) {
+            // El reactor puede cerrar antes de que acabe de escribirse
+        }
+        assertTrue(recorder.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(recorder.lines.isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class OriginIndexTest {
+    private static ChatMessage message(String origin, long seq) {
+        return new ChatMessage(origin, seq, "m" + seq);
+    }
+
+    private static List<Long> seqs(List<ChatMessage> messages) {
+        List<Long> result = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            result.add(message.seq);
+        }
+        return result;
+    }
+
+    @Test
+    void rejectsDuplicates() {
+        OriginIndex index = new OriginIndex();
+        assertTrue(index.add(message("A~1", 1)));
+        assertFalse(index.add(message("A~1", 1)));
+        assertTrue(index.add(message("B~1", 1)));
+    }
+
+    @Test
+    void watermarkStopsAtTheFirstGap() {
+        OriginIndex index = new OriginIndex();
+        index.add(message("A~1", 1));
+        index.add(message("A~1", 2));
+        index.add(message("A~1", 4));
+        assertEquals(Map.of("A~1", 2L), OriginIndex.parseVector(index.vector()));
+
+        // El hueco se rellena y la marca salta hasta lo que ya había
+        assertTrue(index.add(message("A~1", 3)));
+        assertEquals(Map.of("A~1", 4L), OriginIndex.parseVector(index.vector()));
+    }
+
+    @Test
+    void sinceReturnsWhatFollowsTheVector() {
+        OriginIndex index = new OriginIndex();
+        for (long seq = 1; seq <= 5; seq++) {
+            index.add(message("A~1", seq));
+        }
+        index.add(message("B~1", 1));
+
+        List<ChatMessage> missing = index.since(Map.of("A~1", 3L, "B~1", 1L), 100);
+        assertEquals(List.of(4L, 5L), seqs(missing));
+        assertEquals(6, index.since(Map.of(), 100).size());
+        assertEquals(2, index.since(Map.of(), 2).size());
+    }
+
+    @Test
+    void removedMessageIsNotAcceptedAgain() {
+        OriginIndex index = new OriginIndex();
+        ChatMessage first = message("A~1", 1);
+        index.add(first);
+        index.remove(first);
+        assertFalse(index.add(first));
+        assertTrue(index.since(Map.of(), 100).isEmpty());
+    }
+
+    @Test
+    void removedAboveAGapIsStillSeen() {
+        OriginIndex index = new OriginIndex();
+        index.add(message("A~1", 1));
+        ChatMessage third = message("A~1", 3);
+        index.add(third);
+        index.remove(third);
+        // Un reenvío del mismo mensaje no pasa por nuevo
+        assertFalse(index.add(third));
+        assertEquals(Map.of("A~1", 1L), OriginIndex.parseVector(index.vector()));
+
+        assertTrue(index.add(message("A~1", 2)));
+        assertEquals(Map.of("A~1", 3L), OriginIndex.parseVector(index.vector()));
+    }
+
+    @Test
+    void markSeenDoesNotJumpOverGaps() {
+        OriginIndex index = new OriginIndex();
+        index.markSeen("A~1", 1);
+        index.markSeen("A~1", 3);
+        index.markSeen("A~1", 4);
+        assertEquals(Map.of("A~1", 1L), OriginIndex.parseVector(index.vector()));
+        assertFalse(index.add(message("A~1", 3)));
+
+        // Lo que falta llega por sincronización y la marca sigue hasta el rango visto
+        assertTrue(index.add(message("A~1", 2)));
+        assertEquals(Map.of("A~1", 4L), OriginIndex.parseVector(index.vector()));
+        assertTrue(index.add(message("A~1", 5)));
+    }
+
+    @Test
+    void markSeenThroughSkipsWhatCannotBeRepaired() {
+        OriginIndex index = new OriginIndex();
+        index.markSeen("A~1", 8);
+        index.markSeen("A~1", 9);
+        index.markSeenThrough("A~1", 6);
+        assertEquals(Map.of("A~1", 6L), OriginIndex.parseVector(index.vector()));
+        assertFalse(index.add(message("A~1", 5)));
+        assertTrue(index.add(message("A~1", 7)));
+        assertEquals(Map.of("A~1", 9L), OriginIndex.parseVector(index.vector()));
+    }
+
+    @Test
+    void containsWhatIsKnownAboveAndBelowTheWatermark() {
+        OriginIndex index = new OriginIndex();
+        index.add(message("A~1", 1));
+        index.add(message("A~1", 3));
+        index.markSeen("A~1", 5);
+        assertTrue(index.contains("A~1", 1));
+        assertTrue(index.contains("A~1", 3));
+        assertTrue(index.contains("A~1", 5));
+        assertFalse(index.contains("A~1", 2));
+        assertFalse(index.contains("A~1", 4));
+        assertFalse(index.contains("B~1", 1));
+    }
+
+    @Test
+    void parseVectorSkipsInvalidEntries() {
+        assertEquals(Map.of("A~1", 3L, "B~2", 7L), OriginIndex.parseVector("A~1=3,X=abc,B~2=7,sinigual"));
+        assertTrue(OriginIndex.parseVector("").isEmpty());
+    }
+}
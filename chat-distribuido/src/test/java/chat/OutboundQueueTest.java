@@ -0,0 +1,82 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.*;
+
+class OutboundQueueTest {
+    private final LongAdder droppedTotal = new LongAdder();
+
+    private static List<String> drain(OutboundQueue queue) {
+        List<String> lines = new ArrayList<>();
+        byte[] line;
+        while ((line = queue.poll()) != null) {
+            lines.add(new String(line, OutboundQueue.CHARSET).trim());
+        }
+        return lines;
+    }
+
+    private static void offerAll(OutboundQueue queue, String... lines) {
+        for (String line : lines) {
+            assertTrue(queue.offer(OutboundQueue.encode(line)));
+        }
+    }
+
+    @Test
+    void dropOldestKeepsTheNewest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DESCARTAR, droppedTotal);
+        offerAll(queue, "1", "2", "3", "4");
+        assertEquals(List.of("3", "4"), drain(queue));
+        assertEquals(2, queue.dropped());
+        assertEquals(2, droppedTotal.sum());
+        assertEquals(2, queue.highWater());
+    }
+
+    @Test
+    void summarizeReplacesThePendingLinesWithOneNotice() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.RESUMIR, droppedTotal);
+        offerAll(queue, "1", "2", "3", "4");
+        // El aviso cuenta todo lo omitido mientras sigue en la cola
+        assertEquals(List.of("--- 3 mensajes omitidos por congestión ---", "4"), drain(queue));
+        assertEquals(3, queue.dropped());
+        offerAll(queue, "5");
+        assertEquals(List.of("5"), drain(queue));
+    }
+
+    @Test
+    void disconnectClosesTheQueueOnce() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DESCONECTAR, droppedTotal);
+        offerAll(queue, "1", "2");
+        assertFalse(queue.offer(OutboundQueue.encode("3")));
+        // Ya cerrada: lo que llegue después se ignora sin volver a pedir el cierre
+        assertTrue(queue.offer(OutboundQueue.encode("4")));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.take());
+    }
+
+    @Test
+    void finishDeliversWhatIsPending() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.Policy.DESCARTAR, droppedTotal);
+        offerAll(queue, "1", "2");
+        queue.finish();
+        queue.offer(OutboundQueue.encode("3"));
+        assertEquals("1\n", new String(queue.take(), OutboundQueue.CHARSET));
+        assertEquals("2\n", new String(queue.take(), OutboundQueue.CHARSET));
+        assertNull(queue.take());
+    }
+
+    @Test
+    void closeDiscardsWhatIsPending() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.Policy.DESCARTAR, droppedTotal);
+        offerAll(queue, "1", "2");
+        queue.close();
+        assertNull(queue.take());
+    }
+
+    @Test
+    void linesAreUtf8() {
+        assertArrayEquals("ñandú\n".getBytes(java.nio.charset.StandardCharsets.UTF_8), OutboundQueue.encode("ñandú"));
+    }
+}
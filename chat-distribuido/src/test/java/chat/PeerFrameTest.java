@@ -0,0 +1,78 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import org.junit.jupiter.api.*;
+
+class PeerFrameTest {
+
+    private static PeerFrame roundTrip(PeerFrame frame, boolean clock) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.bytes(clock)));
+        PeerFrame read = PeerFrame.read(in, clock);
+        assertNull(PeerFrame.read(in, clock));
+        return read;
+    }
+
+    @Test
+    void roundTripKeepsEveryField() throws IOException {
+        // El texto viaja tal cual: separadores del formato de texto y saltos de línea incluidos
+        ChatMessage message = new ChatMessage("A~1", 42, "sala", "ana: a||b\nc:ñ", 123456789L);
+        for (boolean clock : new boolean[] {false, true}) {
+            PeerFrame read = roundTrip(new PeerFrame(PeerFrame.REPLICATE, message), clock);
+            assertEquals(PeerFrame.REPLICATE, read.type);
+            assertEquals("A~1", read.message.origin);
+            assertEquals(42, read.message.seq);
+            assertEquals("sala", read.message.room);
+            assertEquals("ana: a||b\nc:ñ", read.message.text);
+            assertEquals(clock ? 123456789L : 0, read.message.hlc);
+        }
+    }
+
+    @Test
+    void controlFramesRoundTrip() throws IOException {
+        assertEquals(PeerFrame.PING, roundTrip(PeerFrame.control(PeerFrame.PING), false).type);
+        PeerFrame batch = roundTrip(PeerFrame.batch(7), true);
+        assertEquals(PeerFrame.BATCH, batch.type);
+        assertEquals(7, batch.message.seq);
+        assertEquals("A=3,B=5", roundTrip(PeerFrame.syncSince("A=3,B=5"), false).message.text);
+    }
+
+    @Test
+    void oversizedOrBrokenFramesAreRejected() {
+        byte[] tooLong = {0x00, 0x10, 0x00, 0x01};
+        assertThrows(IOException.class, () -> PeerFrame.readBody(new DataInputStream(new ByteArrayInputStream(tooLong))));
+        byte[] empty = {0, 0, 0, 0};
+        assertThrows(IOException.class, () -> PeerFrame.readBody(new DataInputStream(new ByteArrayInputStream(empty))));
+        // El origen dice ocupar más de lo que trae la trama
+        byte[] body = {PeerFrame.REPLICATE, 0x7f, 0x7f, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        assertThrows(IOException.class, () -> PeerFrame.decode(body, 0, body.length));
+        assertThrows(IOException.class, () -> PeerFrame.decode(body, 0, 3));
+    }
+
+    @Test
+    void maxTextIsTheLargestThatFitsBothForms() throws IOException {
+        int max = PeerFrame.maxText("A~1", "sala");
+        String longest = "x".repeat(max);
+        PeerFrame frame = new PeerFrame(PeerFrame.SYNC_MSG, new ChatMessage("A~1", Long.MAX_VALUE, "sala", longest));
+        assertTrue(frame.fits());
+        assertTrue(frame.bytes(true).length - 4 <= PeerFrame.MAX_FRAME);
+        assertTrue(frame.toLine().getBytes(StandardCharsets.UTF_8).length <= NioReactor.MAX_LINE);
+        assertEquals(longest, roundTrip(frame, true).message.text);
+        // Los caracteres se cuentan en bytes
+        assertFalse(PeerFrame.fits("A~1", "sala", "x".repeat(max - 1) + "ñ"));
+        assertEquals("añ😀".getBytes(StandardCharsets.UTF_8).length, PeerFrame.utf8Length("añ😀"));
+    }
+
+    @Test
+    void textFormParsesBack() {
+        PeerFrame frame = PeerFrame.parseLine(new PeerFrame(PeerFrame.REPLICATE, new ChatMessage("A~1", 3, "sala", "ana: a:b")).toLine());
+        assertEquals(PeerFrame.REPLICATE, frame.type);
+        assertEquals("sala", frame.message.room);
+        assertEquals("ana: a:b", frame.message.text);
+        // Réplicas antiguas sin cabecera de origen
+        assertNull(PeerFrame.parseLine("REPLICATE:hola"));
+        assertNull(PeerFrame.parseLine("OTRA:cosa"));
+    }
+}
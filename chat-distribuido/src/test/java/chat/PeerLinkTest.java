@@ -0,0 +1,172 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+// Lotes con acuse sin conectar: track/acknowledge son lo que hacen el escritor y el lector
+// del enlace, y resendUnacknowledged lo que se escribe al reconectar
+class PeerLinkTest {
+    private final Metrics metrics = new Metrics("Prueba");
+    private final PeerLink link = new PeerLink("A", "localhost:5000", new ServerConfig(), Thread::new, metrics, frame -> {
+    });
+
+    private static List<PeerFrame> frames(long... seqs) {
+        List<PeerFrame> frames = new ArrayList<>();
+        for (long seq : seqs) {
+            frames.add(new PeerFrame(PeerFrame.REPLICATE, new ChatMessage("A~1", seq, "m" + seq)));
+        }
+        return frames;
+    }
+
+    // Tramas escritas, como "seq" para los mensajes y "lote n" para los cierres de lote
+    private static List<String> written(ByteArrayOutputStream out) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<String> result = new ArrayList<>();
+        while (in.available() > 0) {
+            PeerFrame frame = PeerFrame.read(in);
+            result.add(frame.type == PeerFrame.BATCH ? "lote " + frame.message.seq : String.valueOf(frame.message.seq));
+        }
+        return result;
+    }
+
+    @Test
+    void cumulativeAckRetiresEveryBatchUpToIt() {
+        assertEquals(1, link.track(frames(1, 2)));
+        assertEquals(2, link.track(frames(3)));
+        assertEquals(3, link.track(frames(4, 5)));
+        assertEquals(5, link.unacknowledged());
+
+        link.acknowledge(2);
+        assertEquals(2, link.unacknowledged());
+        // Un acuse repetido o antiguo no retira nada más
+        link.acknowledge(2);
+        link.acknowledge(1);
+        assertEquals(2, link.unacknowledged());
+        link.acknowledge(3);
+        assertEquals(0, link.unacknowledged());
+    }
+
+    @Test
+    void reconnectResendsOnlyWhatIsUnacknowledged() throws IOException {
+        link.track(frames(1, 2));
+        link.track(frames(3));
+        link.track(frames(4));
+        link.acknowledge(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        link.resendUnacknowledged(out);
+        assertEquals(List.of("3", "lote 2", "4", "lote 3"), written(out));
+        // Se reenvían con su número: no se duplican en vuelo
+        assertEquals(2, link.unacknowledged());
+
+        link.acknowledge(3);
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        link.resendUnacknowledged(again);
+        assertEquals(List.of(), written(again));
+    }
+
+    @Test
+    void withoutAcksUnconfirmedFramesGoBackAheadOfTheBatch() {
+        link.track(frames(1, 2));
+        link.track(frames(3));
+        List<PeerFrame> batch = new ArrayList<>(frames(4));
+        link.reclaimUnacknowledged(batch);
+
+        List<Long> seqs = new ArrayList<>();
+        for (PeerFrame frame : batch) {
+            seqs.add(frame.message.seq);
+        }
+        assertEquals(List.of(1L, 2L, 3L, 4L), seqs);
+        assertEquals(0, link.unacknowledged());
+    }
+
+    @Test
+    void ackCountsTowardsTheQuorumOnce() {
+        List<Boolean> results = new ArrayList<>();
+        WriteQuorum quorum = new WriteQuorum(1, result -> results.add(result.reached()));
+        List<PeerFrame> batch = frames(1);
+        batch.get(0).quorum = quorum;
+        link.track(batch);
+
+        link.acknowledge(1);
+        link.acknowledge(1);
+        assertEquals(1, quorum.acks());
+        assertEquals(List.of(true), results);
+    }
+
+    @Test
+    void aReplicaThatNeverAcksDoesNotGrowInFlightWithoutBound() {
+        for (int i = 0; i < 3; i++) {
+            List<PeerFrame> batch = new ArrayList<>();
+            for (int j = 0; j < PeerLink.QUEUE_CAPACITY / 2; j++) {
+                batch.add(new PeerFrame(PeerFrame.REPLICATE, new ChatMessage("A~1", i * PeerLink.QUEUE_CAPACITY + j + 1, "m")));
+            }
+            link.track(batch);
+        }
+        assertTrue(link.unacknowledged() <= PeerLink.QUEUE_CAPACITY);
+    }
+
+    // Un mensaje tan largo como acepta el servidor llega entero a una réplica con el límite
+    // de líneas del reactor; uno más largo se descarta sin cortar el enlace
+    @Test
+    void aMaximumLengthMessageCrossesTheLink() throws Exception {
+        String origin = "A~1";
+        String room = "sala";
+        String longest = "x".repeat(PeerFrame.maxText(origin, room));
+        PeerFrame max = new PeerFrame(PeerFrame.REPLICATE, new ChatMessage(origin, 1, room, longest));
+        assertTrue(max.fits());
+        assertTrue(max.bytes(true).length - 4 <= PeerFrame.MAX_FRAME);
+        PeerFrame over = new PeerFrame(PeerFrame.REPLICATE, new ChatMessage(origin, 2, room, longest + "ñ"));
+        assertFalse(over.fits());
+
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        NioReactor reactor = new NioReactor();
+        Thread thread = new Thread(reactor, "reactor-prueba");
+        thread.setDaemon(true);
+        thread.start();
+        ServerConfig config = new ServerConfig();
+        // Desfase 0: el enlace habla en texto, la forma con más cabecera
+        config.peerPortOffset = 0;
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            PeerLink textLink = new PeerLink("A", "localhost:" + server.socket().getLocalPort(), config,
+                    Thread::new, metrics, frame -> {
+                    });
+            textLink.send(max);
+            textLink.send(over);
+            textLink.send(new PeerFrame(PeerFrame.REPLICATE, new ChatMessage(origin, 3, room, "fin")));
+            textLink.start();
+            try {
+                reactor.register(server.accept(), channel -> new NioReactor.Listener() {
+                    @Override
+                    public void onOpen() {
+                    }
+
+                    @Override
+                    public void onLine(String line) {
+                        lines.add(line);
+                    }
+
+                    @Override
+                    public void onClose() {
+                        closed.countDown();
+                    }
+                });
+                assertEquals("PEER:A", lines.poll(5, TimeUnit.SECONDS));
+                assertEquals(max.toLine(), lines.poll(5, TimeUnit.SECONDS));
+                assertEquals(longest, PeerFrame.parseLine(max.toLine()).message.text);
+                assertEquals("REPLICATE:A~1:3#sala:fin", lines.poll(5, TimeUnit.SECONDS));
+                assertEquals(1, closed.getCount());
+            } finally {
+                textLink.stop();
+            }
+        }
+    }
+}
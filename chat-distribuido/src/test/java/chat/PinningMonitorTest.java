@@ -0,0 +1,81 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.util.concurrent.*;
+import jdk.jfr.*;
+import org.junit.jupiter.api.*;
+
+// Hilos virtuales por reflexión: con Java 17 se rechaza la opción, con 21+ se crean
+class PinningMonitorTest {
+    private static final boolean VIRTUAL = Runtime.version().feature() >= 21;
+
+    // Thread.isVirtual() no existe en Java 17
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        return VIRTUAL && (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+
+    @Test
+    void virtualThreadsNeedJava21() throws Exception {
+        ServerConfig config = new ServerConfig();
+        if (!VIRTUAL) {
+            assertThrows(IllegalArgumentException.class, () -> config.apply("--hilos=virtual"));
+            assertFalse(config.isVirtual());
+            return;
+        }
+        config.apply("--hilos=virtual");
+        assertTrue(config.isVirtual());
+        Thread thread = config.threadFactory("prueba-").newThread(() -> {
+        });
+        assertTrue(thread.getName().startsWith("prueba-"));
+        assertTrue(isVirtual(thread));
+    }
+
+    @Test
+    void platformThreadsByDefault() throws Exception {
+        ServerConfig config = new ServerConfig();
+        assertFalse(config.isVirtual());
+        assertFalse(isVirtual(config.threadFactory("prueba-").newThread(() -> {
+        })));
+        assertThrows(IllegalArgumentException.class, () -> config.apply("--hilos=verdes"));
+    }
+
+    @Test
+    void withoutTheEventStartOnlyWarns() {
+        assumeTrue(FlightRecorder.getFlightRecorder().getEventTypes().stream()
+                .noneMatch(t -> t.getName().equals(PinningMonitor.EVENT)));
+        PinningMonitor monitor = new PinningMonitor("Prueba");
+        monitor.start(1);
+        assertEquals(0, monitor.pinnedEvents());
+    }
+
+    // Hasta Java 23 dormir dentro de synchronized fija el hilo virtual a su portador
+    @Test
+    void reportsAVirtualThreadPinnedInsideSynchronized() throws Exception {
+        int feature = Runtime.version().feature();
+        assumeTrue(feature >= 21 && feature < 24);
+        PinningMonitor monitor = new PinningMonitor("Prueba");
+        monitor.start(1);
+        ServerConfig config = new ServerConfig();
+        config.apply("--hilos=virtual");
+        ThreadFactory virtual = config.threadFactory("fijado-");
+        Object lock = new Object();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (monitor.pinnedEvents() == 0 && System.currentTimeMillis() < deadline) {
+            Thread thread = virtual.newThread(() -> {
+                synchronized (lock) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+            Thread.sleep(100);
+        }
+        assertTrue(monitor.pinnedEvents() > 0);
+    }
+}
@@ -0,0 +1,49 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class RoomIndexTest {
+    private final OriginIndex origins = new OriginIndex();
+    private final RoomIndex<String> rooms = new RoomIndex<>(origins, 10, 0);
+
+    @Test
+    void roomCreatesOnceAndGetDoesNotCreate() {
+        assertNull(rooms.get("sala"));
+        RoomIndex.Room<String> room = rooms.room("sala");
+        assertSame(room, rooms.room("sala"));
+        assertSame(room, rooms.get("sala"));
+        assertEquals(1, rooms.size());
+    }
+
+    @Test
+    void subscribersArePerRoom() {
+        rooms.subscribe("a", "ana");
+        rooms.subscribe("b", "bea");
+        assertTrue(rooms.get("a").subscribers.contains("ana"));
+        assertFalse(rooms.get("a").subscribers.contains("bea"));
+
+        rooms.unsubscribe("a", "ana");
+        assertTrue(rooms.get("a").subscribers.isEmpty());
+        // Darse de baja de una sala que no existe no la crea
+        rooms.unsubscribe("c", "ana");
+        assertNull(rooms.get("c"));
+    }
+
+    @Test
+    void historiesShareTheOriginIndex() {
+        assertTrue(rooms.room("a").history.add(new ChatMessage("A~1", 1, "a", "hola")));
+        // El mismo mensaje en otra sala ya se conoce
+        assertFalse(rooms.room("b").history.add(new ChatMessage("A~1", 1, "b", "hola")));
+        assertTrue(origins.contains("A~1", 1));
+    }
+
+    @Test
+    void namePattern() {
+        assertTrue("sala_1.b-c".matches(RoomIndex.NAME_PATTERN));
+        assertFalse("con espacio".matches(RoomIndex.NAME_PATTERN));
+        assertFalse("@ana".matches(RoomIndex.NAME_PATTERN));
+        assertFalse("x".repeat(33).matches(RoomIndex.NAME_PATTERN));
+    }
+}
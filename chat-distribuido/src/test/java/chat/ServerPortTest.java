@@ -0,0 +1,98 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+// Quién es réplica y quién cliente según el puerto: con puerto de réplicas el de clientes
+// saluda en el acto; con el compartido (--desfase-replicas=0) se espera a la primera línea
+class ServerPortTest {
+    private static final int TIMEOUT = 5000;
+
+    // Un puerto libre con su puerto de réplicas también libre
+    private static int freePorts() throws IOException {
+        while (true) {
+            try (ServerSocket client = new ServerSocket(0)) {
+                int port = client.getLocalPort();
+                if (port + 1000 <= 65535) {
+                    try (ServerSocket peer = new ServerSocket(port + 1000)) {
+                        return port;
+                    } catch (IOException e) {
+                        // Ocupado: se prueba otro
+                    }
+                }
+            }
+        }
+    }
+
+    private static int startServer(String io, String... options) throws Exception {
+        int port = freePorts();
+        ServerConfig config = new ServerConfig();
+        config.apply("--io=" + io);
+        for (String option : options) {
+            config.apply(option);
+        }
+        ChatServer server = new ChatServer(port, "Prueba", new ArrayList<>(), config);
+        Thread thread = new Thread(server::start, "servidor-prueba");
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            try (Socket probe = new Socket("localhost", port)) {
+                return port;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static BufferedReader talk(Socket socket, String line) throws IOException {
+        socket.setSoTimeout(TIMEOUT);
+        if (line != null) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(line + "\n");
+            out.flush();
+        }
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hilos", "nio"})
+    void withAPeerPortTheClientPortGreetsAtOnceAndRejectsPeerNames(String io) throws Exception {
+        int port = startServer(io);
+        try (Socket socket = new Socket("localhost", port)) {
+            BufferedReader in = talk(socket, "SYNC_REQUEST");
+            assertEquals("SERVIDOR:Prueba", in.readLine());
+            assertEquals("Ingresa tu nombre de usuario:", in.readLine());
+            assertTrue(in.readLine().startsWith(ChatServer.FEATURES_PREFIX));
+            assertTrue(in.readLine().startsWith("--- Nombre no válido"));
+        }
+        try (Socket socket = new Socket("localhost", port + 1000)) {
+            assertTrue(talk(socket, "SYNC_REQUEST").readLine().startsWith("SYNC_DATA:"));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hilos", "nio"})
+    void onASharedPortWhoSpeaksFirstIsAPeer(String io) throws Exception {
+        int port = startServer(io, "--desfase-replicas=0");
+        // Un servidor antiguo pide el historial sin esperar al saludo y no debe recibirlo
+        try (Socket socket = new Socket("localhost", port)) {
+            assertTrue(talk(socket, "SYNC_REQUEST").readLine().startsWith("SYNC_DATA:"));
+        }
+        // Un cliente espera al saludo, que llega al vencer el plazo
+        try (Socket socket = new Socket("localhost", port)) {
+            BufferedReader in = talk(socket, null);
+            assertEquals("SERVIDOR:Prueba", in.readLine());
+            assertEquals("Ingresa tu nombre de usuario:", in.readLine());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void admitsTheBurstAndThenTheRate() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+        // Una ficha cada 100 ms
+        assertFalse(bucket.tryAcquire(now + SECOND / 20));
+        assertTrue(bucket.tryAcquire(now + SECOND / 10));
+        assertFalse(bucket.tryAcquire(now + SECOND / 10));
+    }
+
+    @Test
+    void releaseGivesTheTokenBack() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        bucket.release();
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    void releaseOnAFullBucketDoesNotAddTokens() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime() + SECOND;
+        assertTrue(bucket.tryAcquire(now));
+        bucket.release();
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    void reserveReturnsTheWait() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.reserve(now));
+        assertEquals(SECOND / 10, bucket.reserve(now));
+        assertEquals(2 * SECOND / 10, bucket.reserve(now));
+    }
+}
@@ -0,0 +1,71 @@
+package chat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.*;
+
+class WriteQuorumTest {
+    // Resultados entregados, uno por llamada al callback
+    private final List<Boolean> results = new CopyOnWriteArrayList<>();
+
+    private WriteQuorum quorum(int required) {
+        return new WriteQuorum(required, result -> results.add(result.reached()));
+    }
+
+    @Test
+    void reachedFiresOnceWithTheRequiredAcks() {
+        WriteQuorum quorum = quorum(2);
+        quorum.ack();
+        assertTrue(results.isEmpty());
+        quorum.ack();
+        assertEquals(List.of(true), results);
+
+        // Lo que llega después no vuelve a resolverlo
+        quorum.ack();
+        quorum.expire();
+        assertEquals(List.of(true), results);
+        assertEquals(3, quorum.acks());
+    }
+
+    @Test
+    void expiredFiresOnceWithoutTheRequiredAcks() {
+        WriteQuorum quorum = quorum(2);
+        quorum.ack();
+        quorum.expire();
+        assertEquals(List.of(false), results);
+        assertEquals(1, quorum.acks());
+
+        quorum.ack();
+        quorum.expire();
+        assertEquals(List.of(false), results);
+    }
+
+    @Test
+    void timeoutExpiresAndReachingCancelsIt() throws Exception {
+        ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1);
+        // Como en el servidor: un plazo cancelado sale de la cola
+        timers.setRemoveOnCancelPolicy(true);
+        try {
+            CountDownLatch expired = new CountDownLatch(1);
+            WriteQuorum late = new WriteQuorum(1, result -> {
+                results.add(result.reached());
+                expired.countDown();
+            });
+            late.expireAfter(timers, 20);
+            assertTrue(expired.await(5, TimeUnit.SECONDS));
+            late.ack();
+            assertEquals(List.of(false), results);
+
+            WriteQuorum quick = quorum(1);
+            quick.expireAfter(timers, 60_000);
+            quick.ack();
+            assertEquals(List.of(false, true), results);
+            // El plazo se cancela al resolverse
+            assertEquals(0, timers.getQueue().size());
+        } finally {
+            timers.shutdownNow();
+        }
+    }
+}